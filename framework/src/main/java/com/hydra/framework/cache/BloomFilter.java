@@ -0,0 +1,93 @@
+package com.hydra.framework.cache;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Created by Hydra.
+ * <p>
+ * 给 JCache 的weak层用的布隆过滤器，mightContain 返回false时weak里一定没有这个key，peek 不用再去查weak
+ * 1、位数按 expectedInsertions 和 1% 的误判率算，取2的幂，7个hash由key的hash做 double hashing 得到
+ * 2、只能加不能删，weak里删掉的key会一直误判成可能存在，JCache 定时整个重建
+ * 3、put 在 JCache 的锁里，mightContain 不加锁
+ */
+final class BloomFilter {
+
+    private static final int HASH_COUNT = 7;
+
+    // 1% 误判率时每个元素需要的位数
+    private static final double BITS_PER_INSERTION = 9.6;
+
+    private final AtomicLongArray mBits;
+
+    private final int mBitMask;
+
+    private final int mExpectedInsertions;
+
+    // 只在 JCache 的锁里写
+    private int mInsertions = 0;
+
+    BloomFilter(int expectedInsertions) {
+        mExpectedInsertions = Math.max(1, expectedInsertions);
+
+        long bits = (long) Math.ceil(mExpectedInsertions * BITS_PER_INSERTION);
+
+        int bitCount = (int) Math.min(1L << 30, Math.max(64L, Long.highestOneBit(bits - 1) << 1));
+
+        mBits = new AtomicLongArray(bitCount >>> 6);
+        mBitMask = bitCount - 1;
+    }
+
+    void put(@NonNull JCacheKey cacheKey) {
+        long hash = spread(cacheKey.hashCode());
+
+        int hash1 = (int) hash;
+        int hash2 = (int) (hash >>> 32) | 1;
+
+        for (int i = 0; i < HASH_COUNT; ++i) {
+            int bit = (hash1 + i * hash2) & mBitMask;
+
+            int index = bit >>> 6;
+            long mask = 1L << bit;
+
+            long word = mBits.get(index);
+
+            if ((word & mask) == 0L) {
+                mBits.set(index, word | mask);
+            }
+        }
+
+        mInsertions++;
+    }
+
+    boolean mightContain(@NonNull JCacheKey cacheKey) {
+        long hash = spread(cacheKey.hashCode());
+
+        int hash1 = (int) hash;
+        int hash2 = (int) (hash >>> 32) | 1;
+
+        for (int i = 0; i < HASH_COUNT; ++i) {
+            int bit = (hash1 + i * hash2) & mBitMask;
+
+            if ((mBits.get(bit >>> 6) & (1L << bit)) == 0L) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * @return 放进来的key已经比预计的多了，误判率会上去，需要重建
+     */
+    boolean isSaturated() {
+        return mInsertions > mExpectedInsertions;
+    }
+
+    private static long spread(int hashCode) {
+        long hash = hashCode * 0x9E3779B97F4A7C15L;
+
+        return hash ^ (hash >>> 29);
+    }
+}
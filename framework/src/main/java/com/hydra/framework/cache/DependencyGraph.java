@@ -0,0 +1,202 @@
+package com.hydra.framework.cache;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Created by Hydra.
+ * <p>
+ * 所有 JCache 共用的依赖图，记着每个节点是从哪些节点(可以在别的 JCache 里)算出来的：
+ * 1、节点放进cache时按 CacheController.dependenciesOf 登记，被删掉时去掉，只记cache里还在的节点
+ * 2、一个节点被 put、invalidate 或者过期时，collectDependents 一次找出所有直接和间接依赖它的节点，按cache分好组，
+ * 每个cache只加一次锁整批删掉，删的时候不会再级联
+ * 3、有环也没关系，每个节点只会被找到一次
+ * <p>
+ * 所有函数都在 synchronized 里，JCache 可以在自己的 mLock 里调用，但是这里面不会再去拿任何 JCache 的锁
+ */
+final class DependencyGraph {
+
+    // 被依赖的节点 -> 直接依赖它的节点
+    private final HashMap<JCacheDependency, HashSet<JCacheDependency>> mDependents = new HashMap<>();
+
+    // cache -> 这个cache里有依赖的key -> 它依赖的节点
+    private final HashMap<Class<?>, HashMap<JCacheKey, Collection<JCacheDependency>>> mDependencies = new HashMap<>();
+
+    /**
+     * 替换这个节点的依赖，dependencies 为null或者空时去掉
+     */
+    synchronized void setDependencies(@NonNull Class<?> cacheClazz, @NonNull JCacheKey cacheKey,
+                                      @Nullable Collection<JCacheDependency> dependencies) {
+        if (dependencies == null || dependencies.isEmpty()) {
+            removeDependencies(cacheClazz, cacheKey);
+
+            return;
+        }
+
+        HashMap<JCacheKey, Collection<JCacheDependency>> cacheDependencies = mDependencies.get(cacheClazz);
+
+        if (cacheDependencies == null) {
+            cacheDependencies = new HashMap<>();
+
+            mDependencies.put(cacheClazz, cacheDependencies);
+        }
+
+        dependencies = new ArrayList<>(dependencies);
+
+        Collection<JCacheDependency> oldDependencies = cacheDependencies.put(cacheKey, dependencies);
+
+        if (dependencies.equals(oldDependencies)) {
+            return;
+        }
+
+        JCacheDependency dependent = JCacheDependency.of(cacheClazz, cacheKey);
+
+        if (oldDependencies != null) {
+            unlink(dependent, oldDependencies);
+        }
+
+        for (JCacheDependency dependency : dependencies) {
+            HashSet<JCacheDependency> dependents = mDependents.get(dependency);
+
+            if (dependents == null) {
+                dependents = new HashSet<>();
+
+                mDependents.put(dependency, dependents);
+            }
+
+            dependents.add(dependent);
+        }
+    }
+
+    synchronized void removeDependencies(@NonNull Class<?> cacheClazz, @NonNull JCacheKey cacheKey) {
+        HashMap<JCacheKey, Collection<JCacheDependency>> cacheDependencies = mDependencies.get(cacheClazz);
+
+        if (cacheDependencies == null) {
+            return;
+        }
+
+        Collection<JCacheDependency> dependencies = cacheDependencies.remove(cacheKey);
+
+        if (dependencies != null) {
+            unlink(JCacheDependency.of(cacheClazz, cacheKey), dependencies);
+        }
+    }
+
+    /**
+     * 只留下 liveKeys 里的节点的依赖，weak里被回收的key要靠这个清理
+     */
+    synchronized void retainDependencies(@NonNull Class<?> cacheClazz, @NonNull Set<JCacheKey> liveKeys) {
+        HashMap<JCacheKey, Collection<JCacheDependency>> cacheDependencies = mDependencies.get(cacheClazz);
+
+        if (cacheDependencies == null) {
+            return;
+        }
+
+        Iterator<Map.Entry<JCacheKey, Collection<JCacheDependency>>> iterator =
+                cacheDependencies.entrySet().iterator();
+
+        while (iterator.hasNext()) {
+            Map.Entry<JCacheKey, Collection<JCacheDependency>> entry = iterator.next();
+
+            if (!liveKeys.contains(entry.getKey())) {
+                iterator.remove();
+
+                unlink(JCacheDependency.of(cacheClazz, entry.getKey()), entry.getValue());
+            }
+        }
+    }
+
+    synchronized void removeAllDependencies(@NonNull Class<?> cacheClazz) {
+        HashMap<JCacheKey, Collection<JCacheDependency>> cacheDependencies = mDependencies.remove(cacheClazz);
+
+        if (cacheDependencies == null) {
+            return;
+        }
+
+        for (Map.Entry<JCacheKey, Collection<JCacheDependency>> entry : cacheDependencies.entrySet()) {
+            unlink(JCacheDependency.of(cacheClazz, entry.getKey()), entry.getValue());
+        }
+    }
+
+    /**
+     * @return 这个cache里有依赖的key的个数
+     */
+    synchronized int dependencyCount(@NonNull Class<?> cacheClazz) {
+        HashMap<JCacheKey, Collection<JCacheDependency>> cacheDependencies = mDependencies.get(cacheClazz);
+
+        return cacheDependencies == null ? 0 : cacheDependencies.size();
+    }
+
+    /**
+     * 找出所有直接和间接依赖 cacheKeys 的节点，不包括 cacheKeys 自己
+     *
+     * @return cache -> 这个cache里要删掉的key
+     */
+    @NonNull
+    synchronized HashMap<Class<?>, ArrayList<JCacheKey>> collectDependents(@NonNull Class<?> cacheClazz,
+                                                                          @NonNull Collection<JCacheKey> cacheKeys) {
+        HashMap<Class<?>, ArrayList<JCacheKey>> result = new HashMap<>();
+
+        if (mDependents.isEmpty()) {
+            return result;
+        }
+
+        HashSet<JCacheDependency> visited = new HashSet<>();
+        ArrayDeque<JCacheDependency> queue = new ArrayDeque<>();
+
+        for (JCacheKey cacheKey : cacheKeys) {
+            JCacheDependency node = JCacheDependency.of(cacheClazz, cacheKey);
+
+            if (visited.add(node)) {
+                queue.add(node);
+            }
+        }
+
+        while (!queue.isEmpty()) {
+            HashSet<JCacheDependency> dependents = mDependents.get(queue.poll());
+
+            if (dependents == null) {
+                continue;
+            }
+
+            for (JCacheDependency dependent : dependents) {
+                if (!visited.add(dependent)) {
+                    continue;
+                }
+
+                queue.add(dependent);
+
+                ArrayList<JCacheKey> keys = result.get(dependent.cacheClazz);
+
+                if (keys == null) {
+                    keys = new ArrayList<>();
+
+                    result.put(dependent.cacheClazz, keys);
+                }
+
+                keys.add(dependent.cacheKey);
+            }
+        }
+
+        return result;
+    }
+
+    private void unlink(@NonNull JCacheDependency dependent, @NonNull Collection<JCacheDependency> dependencies) {
+        for (JCacheDependency dependency : dependencies) {
+            HashSet<JCacheDependency> dependents = mDependents.get(dependency);
+
+            if (dependents != null && dependents.remove(dependent) && dependents.isEmpty()) {
+                mDependents.remove(dependency);
+            }
+        }
+    }
+}
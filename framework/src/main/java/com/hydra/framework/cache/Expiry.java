@@ -0,0 +1,78 @@
+package com.hydra.framework.cache;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Created by Hydra.
+ * <p>
+ * 节点的过期策略，时间都是 Ticker 的纳秒，返回 NEVER 代表不过期
+ * 过期的节点读不到，在 JCache 的定时任务里由时间轮整批删掉
+ * <p>
+ * 和 JCacheBuilder.expireTime 不一样：expireTime 到了只会回调 onNeedRefresh，值还在；Expiry 到了值就没了
+ */
+public abstract class Expiry<T> {
+
+    public static final long NEVER = Long.MAX_VALUE;
+
+    /**
+     * 新值放进缓存时调用，可以按value算每个节点自己的过期时间
+     *
+     * @return 多久之后过期
+     */
+    public abstract long expireAfterCreate(@NonNull JCacheKey cacheKey, @NonNull T value);
+
+    /**
+     * 同一个key的值被覆盖时调用，默认和新放进来一样
+     *
+     * @param currentDuration 旧值还剩多久过期
+     */
+    public long expireAfterUpdate(@NonNull JCacheKey cacheKey, @NonNull T value, long currentDuration) {
+        return expireAfterCreate(cacheKey, value);
+    }
+
+    /**
+     * 命中时调用，读的时候不加锁，默认不改变过期时间
+     *
+     * @param currentDuration 还剩多久过期
+     */
+    public long expireAfterRead(@NonNull JCacheKey cacheKey, @NonNull T value, long currentDuration) {
+        return currentDuration;
+    }
+
+    /**
+     * 写进去之后固定时间过期
+     */
+    @NonNull
+    public static <T> Expiry<T> afterWrite(long duration, @NonNull TimeUnit unit) {
+        long nanos = unit.toNanos(duration);
+
+        return new Expiry<T>() {
+            @Override
+            public long expireAfterCreate(@NonNull JCacheKey cacheKey, @NonNull T value) {
+                return nanos;
+            }
+        };
+    }
+
+    /**
+     * 最后一次读或者写之后固定时间过期
+     */
+    @NonNull
+    public static <T> Expiry<T> afterAccess(long duration, @NonNull TimeUnit unit) {
+        long nanos = unit.toNanos(duration);
+
+        return new Expiry<T>() {
+            @Override
+            public long expireAfterCreate(@NonNull JCacheKey cacheKey, @NonNull T value) {
+                return nanos;
+            }
+
+            @Override
+            public long expireAfterRead(@NonNull JCacheKey cacheKey, @NonNull T value, long currentDuration) {
+                return nanos;
+            }
+        };
+    }
+}
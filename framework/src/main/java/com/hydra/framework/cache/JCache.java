@@ -6,11 +6,32 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 import com.hydra.framework.cache.JCacheContainer.JCacheBuilder;
+import com.hydra.framework.cache.lru.EvictionPolicy;
 import com.hydra.framework.cache.lru.HotEndLruCache;
+import com.hydra.framework.cache.lru.JLruCache;
+import com.hydra.framework.cache.lru.SegmentedHotEndLruCache;
+import com.hydra.framework.cache.lru.Weigher;
 import com.hydra.framework.thread.ThreadBus;
 
 import java.lang.ref.WeakReference;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Created by Hydra.
@@ -32,40 +53,297 @@ public class JCache<T> {
     private static final long TRIM_WEAK_INTERVAL = 1000 * 90 * 3L;
     private static final long TRIM_WEAK_MAX_INTERVAL = 1000 * 60 * 6L;
 
+    // 有 Expiry 时多久拨一次时间轮，时间轮最小的一格是1秒左右
+    private static final long EXPIRE_INTERVAL = 1000 * 5L;
+
     private static final int TRIM_HARD_MAX_COUNT = 1000;
     private static final int TRIM_WEAK_MAX_COUNT = 2000;
 
+    // hard到了上限时，每次put最多从冷端往weak里挪多少个节点
+    private static final int DEMOTE_HARD_MAX_COUNT_ON_PUT = 64;
+
+    // 有weigher时 minHardSize 是weight的单位，weak的初始size就不能按 minHardSize * 8 来算了
+    private static final int DEFAULT_WEAK_MIN_SIZE = 512;
+
+    // loadAll 时每攒够这么多条加一次锁放进去，不会长时间占着锁
+    private static final int BULK_LOAD_BATCH_SIZE = 128;
+
+    // controller 没有批量加载时，getAll 最多同时用几个线程调用 createNewCacheObject(包括调用 getAll 的线程)
+    private static final int MAX_PARALLEL_LOADS = 4;
+
+    // compute 的分段锁个数，必须是2的幂
+    private static final int KEY_LOCK_STRIPES = 16;
+
+    // 加载耗时滑动平均的平滑系数，新样本占 1/8
+    private static final int LOAD_COST_SMOOTHING = 8;
+
     private static final String TAG_PREFIX = "JCache_";
 
     public static abstract class CacheController<T> {
         public abstract T createNewCacheObject(@NonNull JCacheKey cacheKey);
 
+        /**
+         * 刷新到的新值要用 put、compute 之类的放回cache，maxStaleness 从新值放进来的时候重新开始算；
+         * 只是这个函数返回了不算刷新过，一直没有新值放进来的话超过 maxStaleness 就会同步重新加载
+         */
         public void onNeedRefresh(@NonNull JCacheKey cacheKey, @NonNull JCacheValue<T> cacheObject) {
             // can add refresh action here like refresh from server
         }
 
+        /**
+         * 过期的节点按key去重后一批批地回调，在 refreshLane 上调用，默认对每个节点调用 onNeedRefresh
+         * 可以批量刷新的(比如服务器有批量接口)重写这个函数
+         */
+        public void onNeedRefreshBatch(@NonNull Map<JCacheKey, JCacheValue<T>> cacheObjects) {
+            for (Map.Entry<JCacheKey, JCacheValue<T>> entry : cacheObjects.entrySet()) {
+                onNeedRefresh(entry.getKey(), entry.getValue());
+            }
+        }
+
+        /**
+         * 一次加载一批key，getAll 没命中多个key时会先调这个，DB 或者 RPC 批量查比一个个查便宜很多
+         * 返回null代表没有实现，这时会在线程池里并发地调用 createNewCacheObject；
+         * 返回的map里没有的key当作不存在，和 createNewCacheObject 返回null一样，打开了 negativeCacheTime 时会被记下来
+         */
+        @Nullable
+        public Map<JCacheKey, T> createNewCacheObjects(@NonNull Collection<JCacheKey> cacheKeys) {
+            return null;
+        }
+
         public boolean canValueBeTrimmed(JCacheKey cacheKey, T value) {
             // 自定义每个节点的trim策略
             return true;
         }
+
+        /**
+         * 这个节点是从哪些节点算出来的，可以是别的 JCache 里的key，比如会话的摘要依赖会话里的消息
+         * 依赖的节点被 put、compute、invalidate 或者过期时这个节点会被一起 invalidate，只在依赖的cache和这个cache都注册在
+         * JCacheContainer 里时有效；在 JCache 的锁里调用，要快
+         */
+        @Nullable
+        public Collection<JCacheDependency> dependenciesOf(@NonNull JCacheKey cacheKey, @NonNull T value) {
+            return null;
+        }
+    }
+
+    /**
+     * loadAll 的数据源，用法和 Cursor 一样，只会在 loadAll 指定的线程上被调用
+     */
+    public interface BulkLoadSource<T> {
+
+        /**
+         * @return 总条数，不知道时返回 -1，知道的话hard只需要扩容一次
+         */
+        int estimatedCount();
+
+        /**
+         * @return false 时没有更多数据了
+         */
+        boolean moveToNext();
+
+        @NonNull
+        JCacheKey currentKey();
+
+        @NonNull
+        T currentValue();
+
+        void close();
+    }
+
+    public interface BulkLoadCallback {
+        /**
+         * 在 loadAll 指定的线程上回调
+         *
+         * @param count 放进缓存的条数，已经在缓存里的key不会被覆盖，不算在里面
+         */
+        void onBulkLoadFinished(int count, @Nullable Throwable error);
+    }
+
+    public static class LoadStats {
+        // 没命中时的加载
+        public final long missLoadCount;
+        public final long missLoadTimeNanos;
+
+        // 超过 maxStaleness 之后的同步加载
+        public final long staleReloadCount;
+        public final long staleReloadTimeNanos;
+
+        public final long loadFailureCount;
+
+        // 超过 expireTime 之后交给 onNeedRefresh 的后台刷新，early 是 earlyRefreshBeta 提前的
+        public final long refreshCount;
+        public final long earlyRefreshCount;
+
+        LoadStats(long missLoadCount, long missLoadTimeNanos, long staleReloadCount, long staleReloadTimeNanos,
+                  long loadFailureCount, long refreshCount, long earlyRefreshCount) {
+            this.missLoadCount = missLoadCount;
+            this.missLoadTimeNanos = missLoadTimeNanos;
+            this.staleReloadCount = staleReloadCount;
+            this.staleReloadTimeNanos = staleReloadTimeNanos;
+            this.loadFailureCount = loadFailureCount;
+            this.refreshCount = refreshCount;
+            this.earlyRefreshCount = earlyRefreshCount;
+        }
+
+        public long averageMissLoadTimeNanos() {
+            return missLoadCount == 0L ? 0L : missLoadTimeNanos / missLoadCount;
+        }
+
+        public long averageStaleReloadTimeNanos() {
+            return staleReloadCount == 0L ? 0L : staleReloadTimeNanos / staleReloadCount;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return "LoadStats{" + "missLoadCount=" + missLoadCount + ", averageMissLoadTimeNanos=" +
+                    averageMissLoadTimeNanos() + ", staleReloadCount=" + staleReloadCount +
+                    ", averageStaleReloadTimeNanos=" + averageStaleReloadTimeNanos() + ", loadFailureCount=" +
+                    loadFailureCount + ", refreshCount=" + refreshCount + ", earlyRefreshCount=" +
+                    earlyRefreshCount + '}';
+        }
+    }
+
+    public interface ComputeFunction<T> {
+        /**
+         * @param oldValue 缓存里现在的值，没有时是null
+         * @return 新的值，返回null时把这个key删掉
+         */
+        @Nullable
+        T compute(@NonNull JCacheKey cacheKey, @Nullable T oldValue);
+    }
+
+    public interface MergeFunction<T> {
+        /**
+         * @return 合并之后的值，返回null时把这个key删掉
+         */
+        @Nullable
+        T merge(@NonNull T oldValue, @NonNull T value);
+    }
+
+    public interface Tagger<T> {
+        /**
+         * 在 JCache 的锁里调用，要快，里面不能再操作这个cache
+         *
+         * @return 这个节点的tag，可以是null
+         */
+        @Nullable
+        Collection<?> tagsOf(@NonNull JCacheKey cacheKey, @NonNull T value);
+    }
+
+    public interface InvalidatePredicate<T> {
+        boolean shouldInvalidate(@NonNull JCacheKey cacheKey, @NonNull T value);
+    }
+
+    public interface GetCallback<T> {
+        /**
+         * 在 getAsync 指定的线程上回调，error 不为null时 value 是null
+         */
+        void onGetFinished(@NonNull JCacheKey cacheKey, @Nullable T value, @Nullable Throwable error);
     }
 
-    private final HotEndLruCache<JCacheKey, JCacheValue<T>> mHardCache;
-    private final HotEndLruCache<JCacheKey, JCacheValue<WeakReference<T>>> mWeakCache;
+    private final JLruCache<JCacheKey, JCacheValue<T>> mHardCache;
+    private final JLruCache<JCacheKey, JCacheValue<WeakReference<T>>> mWeakCache;
+
+    // longKey 模式时就是 mHardCache，get(long) 命中时直接按long查
+    @Nullable
+    private final LongKeyLruCache<JCacheValue<T>> mLongHardCache;
+
+    // 分区模式时就是 mHardCache 和 mWeakCache，见 JCacheBuilder.partitionComponent
+    @Nullable
+    private final PartitionedLruCache<JCacheValue<T>> mPartitionedHardCache;
+    @Nullable
+    private final PartitionedLruCache<JCacheValue<WeakReference<T>>> mPartitionedWeakCache;
+
+    private final Class<T> mCacheClazz;
 
     private final String mCacheName;
     private final long mExpireTime; //-1 for no expire
     private final String mTag;
 
-    private final ReentrantReadWriteLock mLock = new ReentrantReadWriteLock();
+    // 只保护 hard 和 weak 之间的移动、扩容和加载登记，读命中不走这把锁
+    private final ReentrantLock mLock = new ReentrantLock();
 
     private final CacheController<T> mCacheController;
 
     private final int mHardInitSize, mWeakInitSize;
 
+    // hard 扩容的上限，有weigher时是weight的单位
+    private final int mHardMaxSize;
+
+    @Nullable
+    private final Weigher<T> mWeigher;
+
+    // getAsync 没命中时加载用的线程
+    private final int mLoadingLane;
+
+    private final RefreshQueue<T> mRefreshQueue;
+
+    // 见 checkNeedRefresh
+    private final float mRefreshJitter;
+    private final float mEarlyRefreshBeta;
+
+    // 纳秒
+    private volatile long mAverageLoadCost = 0L;
+
+    // weak里的key的布隆过滤器，peek 时用来跳过weak；没开时是null，重建时整个换掉
+    @Nullable
+    private volatile BloomFilter mWeakBloomFilter;
+
+    private final AtomicBoolean mWeakBloomRebuildPosted = new AtomicBoolean(false);
+
+    // createNewCacheObject 返回null的key，为null时不记
+    @Nullable
+    private final NegativeCache mNegativeCache;
+
+    // 按key的分量和tag找key，没有声明时为null，只在 mLock 里读写
+    @Nullable
+    private final SecondaryIndex<T> mSecondaryIndex;
+
+    // dependenciesOf 返回过依赖之后才去动依赖图，只在 mLock 里读写
+    private boolean mHasDependencies = false;
+
+    // releaseCache 之后为true，只在 mLock 里读写
+    private boolean mReleased = false;
+
+    // mExpireCallback 删掉的key，expireEntries 出了 mLock 之后拿去级联，只在 mLock 里读写
+    private final ArrayList<JCacheKey> mExpiredKeys = new ArrayList<>();
+
+    // -1 时不限制；值超过这么久(纳秒)没有刷新过(JCacheValue.refreshedTime)就不再返回，同步重新加载
+    private final long mMaxStaleness;
+
+    // 见 loadStats，时间都是纳秒
+    private final AtomicLong mMissLoadCount = new AtomicLong();
+    private final AtomicLong mMissLoadTime = new AtomicLong();
+    private final AtomicLong mStaleReloadCount = new AtomicLong();
+    private final AtomicLong mStaleReloadTime = new AtomicLong();
+    private final AtomicLong mLoadFailureCount = new AtomicLong();
+    private final AtomicLong mRefreshCount = new AtomicLong();
+    private final AtomicLong mEarlyRefreshCount = new AtomicLong();
+
+    // 为null时节点不会过期，mTimerWheel 也是null
+    @Nullable
+    private final Expiry<T> mExpiry;
+
+    private final Ticker mTicker;
+
+    // 只在 mLock 里用
+    @Nullable
+    private final TimerWheel<JCacheKey> mTimerWheel;
+
     private long mLastTrimWeakTime = System.currentTimeMillis();
 
+    // compute 这类读改写操作按key的hash分到这些锁上，不同的key可以并行，ComputeFunction 不在 mLock 里调用
+    private final ReentrantLock[] mKeyLocks = new ReentrantLock[KEY_LOCK_STRIPES];
+
+    // 正在加载中的key，只在 mLock 里读写
+    private HashMap<JCacheKey, LoadingTask<T>> mLoadingTasks = new HashMap<>();
+
+    // 每次 clear 加一，clear 之前开始的加载完之后不再放进缓存，只在 mLock 里读写
+    private int mGeneration = 0;
+
     public JCache(@NonNull JCacheBuilder<T> builder) {
+        this.mCacheClazz = builder.cacheClazz;
         this.mCacheName = builder.cacheClazz.getName();
 
         this.mTag = TAG_PREFIX + this.mCacheName;
@@ -74,205 +352,2003 @@ public class JCache<T> {
         this.mExpireTime = builder.expireTime;
 
         this.mHardInitSize = builder.minHardSize;
-        this.mWeakInitSize = builder.minHardSize * 8;   // weak的初始size == hardSize * 8
+        this.mHardMaxSize = builder.maxHardSize;
+
+        if (mHardMaxSize < mHardInitSize) {
+            throw new RuntimeException("JCache " + mCacheName + " maxHardSize must >= minHardSize");
+        }
+
+        if (builder.admissionFilter && mHardMaxSize == Integer.MAX_VALUE) {
+            Log.w(mTag, "admissionFilter has no effect without maxHardSize, hard cache will grow instead of evicting");
+        }
+
+        if (builder.partitionComponent >= 0 && builder.partitionMaxHardSize == Integer.MAX_VALUE) {
+            Log.w(mTag, "partitionComponent without partitionMaxHardSize, one partition can take the whole hard cache");
+        }
+
+        this.mLoadingLane = builder.loadingLane;
+
+        for (int i = 0; i < KEY_LOCK_STRIPES; ++i) {
+            mKeyLocks[i] = new ReentrantLock();
+        }
+
+        if (builder.refreshJitter < 0.0F || builder.refreshJitter >= 1.0F || builder.earlyRefreshBeta < 0.0F) {
+            throw new RuntimeException("JCache " + mCacheName + " refreshJitter must in [0, 1) and earlyRefreshBeta >= 0");
+        }
+
+        if (builder.maxStaleness != -1L && (builder.maxStaleness <= 0L ||
+                (mExpireTime != -1L && builder.maxStaleness < mExpireTime))) {
+            throw new RuntimeException("JCache " + mCacheName + " maxStaleness must > 0 and >= expireTime");
+        }
+
+        this.mMaxStaleness = builder.maxStaleness == -1L ? -1L : TimeUnit.MILLISECONDS.toNanos(builder.maxStaleness);
+
+        this.mNegativeCache = builder.negativeCacheTime == -1L ? null :
+                new NegativeCache(builder.negativeCacheTime, builder.negativeCacheMaxSize);
+
+        boolean hasIndex = (builder.indexedComponents != null && builder.indexedComponents.length > 0) ||
+                builder.tagger != null;
 
-        mHardCache = new HotEndLruCache<>(mHardInitSize, DEFAULT_HARD_HOT_PERCENT);
-        mWeakCache = new HotEndLruCache<>(mWeakInitSize, DEFAULT_WEAK_HOT_PERCENT);
+        this.mSecondaryIndex = hasIndex ? new SecondaryIndex<>(builder.indexedComponents, builder.tagger) : null;
+
+        this.mRefreshJitter = builder.refreshJitter;
+        this.mEarlyRefreshBeta = builder.earlyRefreshBeta;
+
+        this.mExpiry = builder.expiry;
+        this.mTicker = builder.ticker;
+        this.mTimerWheel = mExpiry == null ? null : new TimerWheel<>(mTicker.read());
+
+        this.mRefreshQueue = new RefreshQueue<>(mTag, mCacheController, builder.refreshLane,
+                builder.refreshBatchSize, builder.refreshConcurrency, builder.maxRefreshPerSecond);
+
+        Weigher<T> weigher = mWeigher = builder.weigher;
+
+        Weigher<JCacheValue<T>> hardWeigher = weigher == null ? null :
+                cacheObject -> weigher.weigh(cacheObject.value);
+
+        // weak的初始size == hardSize * 8；有weigher时weak里只是弱引用，不占内存预算，所以weak一直是按节点个数算的
+        this.mWeakInitSize = weigher == null ? builder.minHardSize * 8 : DEFAULT_WEAK_MIN_SIZE;
+
+        this.mWeakBloomFilter = builder.weakBloomFilter ? new BloomFilter(mWeakInitSize) : null;
+
+        if (builder.longKey) {
+            if (builder.partitionComponent >= 0) {
+                throw new RuntimeException("JCache " + mCacheName + " longKey can not be partitioned");
+            }
+
+            if (builder.evictionPolicy != EvictionPolicy.HOT_END) {
+                throw new RuntimeException("JCache " + mCacheName + " longKey only support HOT_END eviction policy");
+            }
+
+            LongKeyLruCache<JCacheValue<T>> longHardCache = new LongKeyLruCache<>(mHardInitSize,
+                    DEFAULT_HARD_HOT_PERCENT, hardWeigher);
+
+            if (builder.admissionFilter) {
+                longHardCache.enableAdmissionFilter();
+            }
+
+            if (builder.adaptiveHotPercent) {
+                longHardCache.enableAdaptiveHotPercent();
+            }
+
+            mLongHardCache = longHardCache;
+            mHardCache = longHardCache;
+            mWeakCache = new LongKeyLruCache<>(mWeakInitSize, DEFAULT_WEAK_HOT_PERCENT, null);
+
+            mPartitionedHardCache = null;
+            mPartitionedWeakCache = null;
+        } else if (builder.partitionComponent >= 0) {
+            mLongHardCache = null;
+
+            // 每个分区是一个独立的LRU，分段、淘汰策略这些配置都作用在分区上
+            mPartitionedHardCache = new PartitionedLruCache<>(mHardInitSize, DEFAULT_HARD_HOT_PERCENT,
+                    builder.partitionComponent, builder.partitionMaxHardSize, hardWeigher,
+                    (maxSize, hotPercent) -> createLruCache(maxSize, hotPercent, builder.segmentCount,
+                            hardWeigher, builder.evictionPolicy, builder.admissionFilter,
+                            builder.adaptiveHotPercent));
+            // weak只受总的size限制，分区只是为了能整个拿掉
+            mPartitionedWeakCache = new PartitionedLruCache<>(mWeakInitSize, DEFAULT_WEAK_HOT_PERCENT,
+                    builder.partitionComponent, Integer.MAX_VALUE, null,
+                    (maxSize, hotPercent) -> createLruCache(maxSize, hotPercent, builder.segmentCount,
+                            null, EvictionPolicy.HOT_END, false, false));
+
+            mHardCache = mPartitionedHardCache;
+            mWeakCache = mPartitionedWeakCache;
+        } else {
+            mLongHardCache = null;
+
+            mPartitionedHardCache = null;
+            mPartitionedWeakCache = null;
+
+            mHardCache = createLruCache(mHardInitSize, DEFAULT_HARD_HOT_PERCENT, builder.segmentCount,
+                    hardWeigher, builder.evictionPolicy, builder.admissionFilter, builder.adaptiveHotPercent);
+            // weak里的节点靠GC回收，淘汰策略对它没有意义
+            mWeakCache = createLruCache(mWeakInitSize, DEFAULT_WEAK_HOT_PERCENT, builder.segmentCount,
+                    null, EvictionPolicy.HOT_END, false, false);
+        }
 
         startTrimTask();
     }
 
+    @NonNull
+    private static <V> JLruCache<JCacheKey, V> createLruCache(int maxSize, float hotPercent, int segmentCount,
+                                                            @Nullable Weigher<V> weigher,
+                                                            @NonNull EvictionPolicy policy,
+                                                            boolean admissionFilter,
+                                                            boolean adaptiveHotPercent) {
+        if (segmentCount == 1) {
+            JLruCache<JCacheKey, V> lruCache = policy.create(maxSize, hotPercent, weigher);
+
+            // 准入判断和自适应hotPercent只有 HotEndLruCache 支持
+            if (lruCache instanceof HotEndLruCache) {
+                HotEndLruCache<JCacheKey, V> hotEndLruCache = (HotEndLruCache<JCacheKey, V>) lruCache;
+
+                if (admissionFilter) {
+                    hotEndLruCache.enableAdmissionFilter();
+                }
+
+                if (adaptiveHotPercent) {
+                    hotEndLruCache.enableAdaptiveHotPercent();
+                }
+            }
+
+            return lruCache;
+        }
+
+        SegmentedHotEndLruCache<JCacheKey, V> lruCache = new SegmentedHotEndLruCache<>(maxSize, hotPercent,
+                segmentCount, weigher, policy);
+
+        if (admissionFilter) {
+            lruCache.enableAdmissionFilter();
+        }
+
+        if (adaptiveHotPercent) {
+            lruCache.enableAdaptiveHotPercent();
+        }
+
+        return lruCache;
+    }
+
     /**
      * @return null if not exist in cache and put new data to hard cache, or return exist value
      */
     @Nullable
     public T putIfAbsent(@NonNull JCacheKey cacheKey, @NonNull T data) {
-        mLock.readLock().lock();
-
-        JCacheValue<T> cacheObject = mHardCache.get(cacheKey);
+        JCacheValue<T> cacheObject = getFromHard(cacheKey);
 
         if (cacheObject != null) {
-            mLock.readLock().unlock();
-
             return cacheObject.value;
         }
 
-        mLock.readLock().unlock();
-        mLock.writeLock().lock();
+        mLock.lock();
 
         // double check
-        cacheObject = mHardCache.get(cacheKey);
+        cacheObject = getFromHard(cacheKey);
 
         if (cacheObject != null) {
-            mLock.writeLock().unlock();
+            mLock.unlock();
 
             return cacheObject.value;
         }
 
+        forgetAbsent(cacheKey);
+
         JCacheValue<WeakReference<T>> weakCacheObject = mWeakCache.remove(cacheKey);
 
         if (weakCacheObject == null) {
-            putToHard(cacheKey, new JCacheValue<>(cacheKey, data));
+            putToHard(cacheKey, newCacheValue(cacheKey, data));
 
-            mLock.writeLock().unlock();
+            mLock.unlock();
 
             return null;
         }
 
         T weakValue = weakCacheObject.value.get();
 
-        if (weakValue == null) {
-            putToHard(cacheKey, new JCacheValue<>(cacheKey, data));
+        if (weakValue == null || isUnusable(weakCacheObject)) {
+            putToHard(cacheKey, newCacheValue(cacheKey, data));
 
-            mLock.writeLock().unlock();
+            mLock.unlock();
 
             return null;
         }
 
-        putToHard(cacheKey, new JCacheValue<>(cacheKey, weakValue));
+        putToHard(cacheKey, fromWeak(weakCacheObject, weakValue));
 
-        mLock.writeLock().unlock();
+        mLock.unlock();
 
         return weakValue;
     }
 
+    /**
+     * 不管有没有都放进去，比如服务器推过来某个对象变了；正在加载的同一个key加载完之后不会覆盖这个值
+     */
+    public void put(@NonNull JCacheKey cacheKey, @NonNull T data) {
+        mLock.lock();
+
+        try {
+            putLocked(cacheKey, data, getFromHard(cacheKey));
+        } finally {
+            mLock.unlock();
+        }
+
+        cascadeInvalidate(Collections.singletonList(cacheKey));
+    }
+
+    /**
+     * 这个函数在被调用时一定要放到 mLock 里
+     */
+    private void putLocked(@NonNull JCacheKey cacheKey, @NonNull T data, @Nullable JCacheValue<T> oldCacheObject) {
+        forgetAbsent(cacheKey);
+        abandonLoading(cacheKey);
+
+        // weak里剩下的只可能是已经被回收或者过期的
+        mWeakCache.remove(cacheKey);
+
+        putToHard(cacheKey, newCacheValue(cacheKey, data, oldCacheObject));
+    }
+
     @NonNull
     public T get(@NonNull JCacheKey cacheKey) {
         return get(cacheKey, true);
     }
 
     /**
-     * 这里传true时，返回一定会有值
+     * 这里传true时，返回一定会有值；开了 negativeCacheTime 时，createNewCacheObject 返回null的key会返回null
      */
     @Nullable
     public T get(@NonNull JCacheKey cacheKey, boolean autoCreate) {
         JCacheValue<T> cacheObject = cacheObjectForKey(cacheKey, autoCreate);
 
         if (cacheObject != null) {
-            if (mExpireTime != -1L) {
-                long current = System.currentTimeMillis();
+            onCacheHit(cacheObject);
+
+            return cacheObject.value;
+        }
+
+        return null;
+    }
 
-                long lastRefreshTime = cacheObject.lastRefreshTime;
+    @NonNull
+    public T get(long id) {
+        return get(id, true);
+    }
 
-                if (current - lastRefreshTime >= mExpireTime) {
-                    cacheObject.lastRefreshTime = current;
+    /**
+     * longKey 模式下命中时不装箱也不创建JCacheKey，miss时才走 JCacheKey 的流程
+     * 不是 longKey 模式时和 get(JCacheKey.buildLongCacheKey(id), autoCreate) 一样
+     */
+    @Nullable
+    public T get(long id, boolean autoCreate) {
+        if (mLongHardCache != null) {
+            JCacheValue<T> cacheObject = mLongHardCache.get(id);
 
-                    ThreadBus.post(ThreadBus.Mid_Pool,
-                            () -> mCacheController.onNeedRefresh(cacheKey, cacheObject));
-                }
+            if (cacheObject != null && !isUnusable(cacheObject)) {
+                onCacheHit(cacheObject);
+
+                return cacheObject.value;
             }
+        }
+
+        return get(JCacheKey.buildLongCacheKey(id), autoCreate);
+    }
+
+    /**
+     * 只读地查hard和weak，不加锁、不加载、不把weak里的值挪回hard，也不触发刷新
+     * 开了 weakBloomFilter 时，hard没命中的key大部分在布隆过滤器这里就返回了，不会去碰weak
+     */
+    @Nullable
+    public T peek(@NonNull JCacheKey cacheKey) {
+        JCacheValue<T> cacheObject = getFromHard(cacheKey);
 
+        if (cacheObject != null) {
             return cacheObject.value;
         }
 
-        return null;
+        if (isKnownAbsent(cacheKey)) {
+            return null;
+        }
+
+        BloomFilter bloomFilter = mWeakBloomFilter;
+
+        if (bloomFilter != null && !bloomFilter.mightContain(cacheKey)) {
+            return null;
+        }
+
+        JCacheValue<WeakReference<T>> weakCacheObject = mWeakCache.get(cacheKey);
+
+        if (weakCacheObject == null || isUnusable(weakCacheObject)) {
+            return null;
+        }
+
+        return weakCacheObject.value.get();
     }
 
-    @Nullable
-    public JCacheValue<T> cacheObjectForKey(@NonNull JCacheKey cacheKey, boolean autoCreate) {
-        JCacheValue<T> cacheObject;
+    /**
+     * 不阻塞调用线程的get，主线程上用这个，不会因为 createNewCacheObject 卡住：
+     * 1、hard或者weak命中时马上回调，当前线程就是 lane 时直接在当前线程回调
+     * 2、没命中时在 loadingLane 上加载，加载完在 lane 上回调；同一个key的 get、getAll、getAsync 共用一次加载
+     *
+     * @param lane ThreadBus 的线程，传 ThreadBus.Sync 时在命中或者加载完的那个线程上直接回调
+     */
+    public void getAsync(@NonNull JCacheKey cacheKey, int lane, @NonNull GetCallback<T> callback) {
+        JCacheValue<T> cacheObject = getFromHard(cacheKey);
 
-        try {
-            mLock.readLock().lock();
+        if (cacheObject != null) {
+            onCacheHit(cacheObject);
 
-            cacheObject = mHardCache.get(cacheKey);
+            deliver(lane, cacheKey, cacheObject.value, null, callback);
 
-            if (cacheObject != null) {
-                return cacheObject;
-            }
-        } finally {
-            mLock.readLock().unlock();
+            return;
         }
 
+        if (isKnownAbsent(cacheKey)) {
+            deliver(lane, cacheKey, null, null, callback);
+
+            return;
+        }
+
+        LoadingTask<T> loadingTask = null;
+        boolean isLoader = false;
+
         try {
-            mLock.writeLock().lock();
+            mLock.lock();
 
             // double check
-            cacheObject = mHardCache.get(cacheKey);
+            cacheObject = getFromHard(cacheKey);
 
             if (cacheObject == null) {
-                cacheObject = createNewValue(cacheKey, autoCreate);
+                cacheObject = restoreFromWeak(cacheKey);
             }
-        } finally {
-            mLock.writeLock().unlock();
-        }
-
-        return cacheObject;
-    }
 
-    @Nullable
-    private JCacheValue<T> createNewValue(@NonNull JCacheKey cacheKey, boolean autoCreate) {
-        JCacheValue<T> cacheObject = null;
+            if (cacheObject == null) {
+                loadingTask = mLoadingTasks.get(cacheKey);
 
-        JCacheValue<WeakReference<T>> weakCacheObject = mWeakCache.remove(cacheKey);
+                if (loadingTask == null) {
+                    loadingTask = new LoadingTask<>(mGeneration);
 
-        if (weakCacheObject != null) {
-            T weakValue = weakCacheObject.value.get();
+                    mLoadingTasks.put(cacheKey, loadingTask);
 
-            if (weakValue != null) {
-                cacheObject = new JCacheValue<>(cacheKey, weakValue);
-            } else {
-                if (autoCreate) {
-                    cacheObject = new JCacheValue<>(cacheKey,
-                            mCacheController.createNewCacheObject(cacheKey));
+                    isLoader = true;
                 }
+
+                loadingTask.addCallback(cacheKey, lane, callback);
             }
-        } else if (autoCreate) {
-            cacheObject = new JCacheValue<>(cacheKey, mCacheController.createNewCacheObject(cacheKey));
+        } finally {
+            mLock.unlock();
         }
 
-        if (cacheObject == null) {
-            return null;
+        if (cacheObject != null) {
+            onCacheHit(cacheObject);
+
+            deliver(lane, cacheKey, cacheObject.value, null, callback);
+
+            return;
         }
 
-        putToHard(cacheKey, cacheObject);
+        if (isLoader) {
+            LoadingTask<T> task = loadingTask;
 
-        return cacheObject;
+            ThreadBus.post(mLoadingLane, () -> {
+                try {
+                    load(cacheKey, task);
+                } catch (RuntimeException | Error e) {
+                    // 异常已经通过回调交给调用方了，不能让它把线程池的线程搞挂
+                    Log.w(mTag, "getAsync load error: " + cacheKey, e);
+                }
+            });
+        }
     }
 
-    private void putToHard(@NonNull JCacheKey cacheKey, @NonNull JCacheValue<T> value) {
-        int hardSize = mHardCache.size();
-        int hardMaxSize = mHardCache.maxSize();
+    /**
+     * getAsync 的 Future 版本，命中时返回的 Future 已经是完成的，get() 不会阻塞
+     * 加载失败时 Future.get() 抛出 ExecutionException，cause 是 createNewCacheObject 的异常
+     */
+    @NonNull
+    public Future<T> getAsync(@NonNull JCacheKey cacheKey) {
+        LoadFuture<T> future = new LoadFuture<>();
 
-        if (hardSize + 1 > hardMaxSize) {
-            int newHardMaxSize = (int) (hardMaxSize * DEFAULT_SIZE_INCREASE_STEP);
+        getAsync(cacheKey, ThreadBus.Sync, future);
 
-            Log.i(mTag, "putToHard newHardMaxSize: " + newHardMaxSize);
+        return future;
+    }
+
+    private static <T> void deliver(int lane, @NonNull JCacheKey cacheKey, @Nullable T value,
+                                    @Nullable Throwable error, @NonNull GetCallback<T> callback) {
+        Runnable runnable = () -> callback.onGetFinished(cacheKey, value, error);
 
-            mHardCache.resize(newHardMaxSize, DEFAULT_HARD_HOT_PERCENT);
+        if (lane == ThreadBus.Sync) {
+            runnable.run();
+        } else {
+            ThreadBus.callThreadSafe(lane, runnable);
         }
+    }
 
-        mHardCache.put(cacheKey, value);
+    private void onCacheHit(@NonNull JCacheValue<T> cacheObject) {
+        if (mExpiry != null) {
+            recordRead(cacheObject);
+        }
+
+        checkNeedRefresh(cacheObject);
     }
 
-    public void clear() {
-        mLock.writeLock().lock();
+    /**
+     * afterAccess 这种按读来续期的，命中时不加锁直接改节点的过期时间，时间轮里的位置等它到时间了再调整
+     */
+    private void recordRead(@NonNull JCacheValue<T> cacheObject) {
+        long expireAt = cacheObject.expireAt;
 
-        mHardCache.clear();
-        mWeakCache.clear();
+        if (expireAt == Expiry.NEVER) {
+            return;
+        }
 
-        mLock.writeLock().unlock();
-    }
+        long now = mTicker.read();
 
-    public void releaseCache() {
-        clear();
+        long duration = mExpiry.expireAfterRead(cacheObject.cacheKey, cacheObject.value, expireAt - now);
 
-        stopTrimTask();
+        long newExpireAt = expireTimeOf(now, duration);
+
+        if (newExpireAt != expireAt) {
+            cacheObject.expireAt = newExpireAt;
+        }
     }
 
-    @SuppressWarnings("rawtypes")
-    @Override
-    public boolean equals(Object o) {
-        if (!(o instanceof JCache)) {
-            return false;
+    /**
+     * hard里过期了或者超过 maxStaleness 的节点当作不存在，等 expireEntries 或者被同一个key的新值覆盖时再删掉
+     */
+    @Nullable
+    private JCacheValue<T> getFromHard(@NonNull JCacheKey cacheKey) {
+        JCacheValue<T> cacheObject = mHardCache.get(cacheKey);
+
+        if (cacheObject == null || isUnusable(cacheObject)) {
+            return null;
         }
 
-        JCache other = (JCache) o;
+        return cacheObject;
+    }
 
-        return mCacheName.equals(other.mCacheName);
+    private boolean isUnusable(@NonNull JCacheValue<?> cacheObject) {
+        return isExpired(cacheObject, readTicker()) || isTooStale(cacheObject);
     }
 
-    @Override
+    /**
+     * 超过 maxStaleness 没有刷新过的值不能再返回，只能同步重新加载
+     * 和 Expiry 用同一个 Ticker，改系统时间不会让所有节点一下子都变旧或者都不旧
+     */
+    private boolean isTooStale(@NonNull JCacheValue<?> cacheObject) {
+        return mMaxStaleness != -1L && mTicker.read() - cacheObject.refreshedTime >= mMaxStaleness;
+    }
+
+    // 没有 Expiry 时不读时钟
+    private long readTicker() {
+        return mExpiry == null ? 0L : mTicker.read();
+    }
+
+    private static boolean isExpired(@NonNull JCacheValue<?> cacheObject, long now) {
+        long expireAt = cacheObject.expireAt;
+
+        return expireAt != Expiry.NEVER && expireAt - now <= 0L;
+    }
+
+    private static long expireTimeOf(long now, long duration) {
+        if (duration == Expiry.NEVER) {
+            return Expiry.NEVER;
+        }
+
+        long expireAt = now + Math.max(0L, duration);
+
+        // 溢出了或者刚好撞上 NEVER，都当作不过期
+        return expireAt < now || expireAt == Expiry.NEVER ? Expiry.NEVER : expireAt;
+    }
+
+    /**
+     * 新加载或者新放进来的值，按 Expiry 算过期时间
+     */
+    @NonNull
+    private JCacheValue<T> newCacheValue(@NonNull JCacheKey cacheKey, @NonNull T value) {
+        return newCacheValue(cacheKey, value, null);
+    }
+
+    /**
+     * @param oldCacheObject 被覆盖的旧值，不为null时按 expireAfterUpdate 算
+     */
+    @NonNull
+    private JCacheValue<T> newCacheValue(@NonNull JCacheKey cacheKey, @NonNull T value,
+                                         @Nullable JCacheValue<T> oldCacheObject) {
+        JCacheValue<T> cacheObject = new JCacheValue<>(cacheKey, value);
+
+        if (mMaxStaleness != -1L) {
+            cacheObject.refreshedTime = mTicker.read();
+        }
+
+        if (mExpiry != null) {
+            long now = mTicker.read();
+
+            long duration = oldCacheObject == null ? mExpiry.expireAfterCreate(cacheKey, value) :
+                    mExpiry.expireAfterUpdate(cacheKey, value, oldCacheObject.expireAt - now);
+
+            cacheObject.expireAt = expireTimeOf(now, jitter(duration));
+        }
+
+        return cacheObject;
+    }
+
+    /**
+     * 从weak回到hard，过期时间和刷新时间都保持不变
+     */
+    @NonNull
+    private JCacheValue<T> fromWeak(@NonNull JCacheValue<WeakReference<T>> weakCacheObject, @NonNull T value) {
+        JCacheValue<T> cacheObject = new JCacheValue<>(weakCacheObject.cacheKey, value);
+
+        cacheObject.lastRefreshTime = weakCacheObject.lastRefreshTime;
+        cacheObject.expireAt = weakCacheObject.expireAt;
+        cacheObject.loadCost = weakCacheObject.loadCost;
+        cacheObject.refreshedTime = weakCacheObject.refreshedTime;
+
+        return cacheObject;
+    }
+
+    /**
+     * 这个函数在被调用时一定要放到 mLock 里
+     */
+    private void scheduleExpire(@NonNull JCacheKey cacheKey, @NonNull JCacheValue<T> cacheObject) {
+        if (mTimerWheel != null) {
+            mTimerWheel.schedule(cacheKey, cacheObject.expireAt);
+        }
+    }
+
+    /**
+     * 把时间轮拨到现在，过期的节点从hard和weak里删掉，依赖它们的节点在锁外面级联删掉，定时任务里调用
+     */
+    private void expireEntries() {
+        if (mTimerWheel == null) {
+            return;
+        }
+
+        ArrayList<JCacheKey> expiredKeys;
+
+        mLock.lock();
+
+        try {
+            int before = mTimerWheel.size();
+
+            mTimerWheel.advance(mTicker.read(), mExpireCallback);
+
+            Log.i(mTag, "expireEntries count: " + (before - mTimerWheel.size()));
+
+            expiredKeys = new ArrayList<>(mExpiredKeys);
+
+            mExpiredKeys.clear();
+        } finally {
+            mLock.unlock();
+        }
+
+        cascadeInvalidate(expiredKeys);
+    }
+
+    private final TimerWheel.ExpireCallback<JCacheKey> mExpireCallback = new TimerWheel.ExpireCallback<JCacheKey>() {
+        @Override
+        public long onExpire(@NonNull JCacheKey cacheKey, long now) {
+            // 读的时候可能续期了，按节点上现在的时间为准
+            JCacheValue<T> hardCacheObject = mHardCache.get(cacheKey);
+
+            if (hardCacheObject != null) {
+                if (!isExpired(hardCacheObject, now)) {
+                    return hardCacheObject.expireAt;
+                }
+
+                mHardCache.remove(cacheKey);
+            }
+
+            JCacheValue<WeakReference<T>> weakCacheObject = mWeakCache.get(cacheKey);
+
+            if (weakCacheObject != null) {
+                if (hardCacheObject == null && !isExpired(weakCacheObject, now)) {
+                    return weakCacheObject.expireAt;
+                }
+
+                mWeakCache.remove(cacheKey);
+            }
+
+            unindexLocked(cacheKey);
+
+            mExpiredKeys.add(cacheKey);
+
+            return Expiry.NEVER;
+        }
+    };
+
+    /**
+     * 1、refreshJitter 让每个key的刷新间隔在 expireTime 上下浮动，一起加载的节点不会一起过期
+     * 2、earlyRefreshBeta 是 XFetch：离过期越近、加载越慢的节点越有可能提前刷新，过期时已经刷新好了
+     * 提前刷新的概率是 exp(-(过期时间 - 现在) / (loadCost * beta))，差得远的时候不去算随机数
+     */
+    private void checkNeedRefresh(@NonNull JCacheValue<T> cacheObject) {
+        if (mExpireTime != -1L) {
+            long current = System.currentTimeMillis();
+
+            long lastRefreshTime = cacheObject.lastRefreshTime;
+
+            long remaining = lastRefreshTime + refreshIntervalOf(cacheObject.cacheKey) - current;
+
+            boolean early = remaining > 0L;
+
+            if ((!early || shouldRefreshEarly(cacheObject, remaining)) &&
+                    cacheObject.tryMarkRefresh(lastRefreshTime, current)) {
+                (early ? mEarlyRefreshCount : mRefreshCount).incrementAndGet();
+
+                mRefreshQueue.enqueue(cacheObject);
+            }
+        }
+    }
+
+    private long refreshIntervalOf(@NonNull JCacheKey cacheKey) {
+        if (mRefreshJitter <= 0.0F) {
+            return mExpireTime;
+        }
+
+        // 按key的hash算出 [-1, 1) 里的一个数，同一个key每次都一样，不用在节点上多存一个字段
+        int hash = cacheKey.hashCode() * 0x9E3779B9;
+
+        float spread = (float) (hash ^ (hash >>> 16)) / (float) Integer.MIN_VALUE;
+
+        return mExpireTime + (long) (mExpireTime * mRefreshJitter * spread);
+    }
+
+    private boolean shouldRefreshEarly(@NonNull JCacheValue<T> cacheObject, long remaining) {
+        if (mEarlyRefreshBeta <= 0.0F) {
+            return false;
+        }
+
+        long loadCost = cacheObject.loadCost > 0L ? cacheObject.loadCost : mAverageLoadCost;
+
+        double window = loadCost / 1000000.0 * mEarlyRefreshBeta;
+
+        // 概率小于 e^-8 时直接跳过
+        if (window <= 0.0 || remaining > window * 8.0) {
+            return false;
+        }
+
+        return -window * Math.log(1.0 - ThreadLocalRandom.current().nextDouble()) >= remaining;
+    }
+
+    /**
+     * Expiry 算出来的时长按 refreshJitter 随机浮动，一起放进来的节点不会在同一个时间过期
+     */
+    private long jitter(long duration) {
+        if (mRefreshJitter <= 0.0F || duration == Expiry.NEVER || duration <= 0L) {
+            return duration;
+        }
+
+        double spread = ThreadLocalRandom.current().nextDouble(-1.0, 1.0);
+
+        return duration + (long) (duration * mRefreshJitter * spread);
+    }
+
+    @Nullable
+    public JCacheValue<T> cacheObjectForKey(@NonNull JCacheKey cacheKey, boolean autoCreate) {
+        // hard的get是不加锁的，命中时不需要拿 mLock
+        JCacheValue<T> cacheObject = getFromHard(cacheKey);
+
+        if (cacheObject != null || isKnownAbsent(cacheKey)) {
+            return cacheObject;
+        }
+
+        LoadingTask<T> loadingTask;
+        boolean isLoader = false;
+
+        try {
+            mLock.lock();
+
+            // double check
+            cacheObject = getFromHard(cacheKey);
+
+            if (cacheObject == null) {
+                cacheObject = restoreFromWeak(cacheKey);
+            }
+
+            if (cacheObject != null || !autoCreate) {
+                return cacheObject;
+            }
+
+            loadingTask = mLoadingTasks.get(cacheKey);
+
+            if (loadingTask == null) {
+                loadingTask = new LoadingTask<>(mGeneration);
+
+                mLoadingTasks.put(cacheKey, loadingTask);
+
+                isLoader = true;
+            }
+        } finally {
+            mLock.unlock();
+        }
+
+        // 同一个key的并发miss只有第一个线程去create，其他的线程等它的结果
+        if (!isLoader) {
+            return loadingTask.await();
+        }
+
+        return load(cacheKey, loadingTask);
+    }
+
+    /**
+     * 一批key一起查，返回的顺序和 cacheKeys 一样：
+     * 1、hard命中的不加锁
+     * 2、没命中的在一次 mLock 里从weak找回来，或者登记加载
+     * 3、加载都在锁外面，加载完再一次加锁整批放进hard
+     * autoCreate 为false时没有的key不会出现在返回里
+     */
+    @NonNull
+    public Map<JCacheKey, T> getAll(@NonNull Collection<JCacheKey> cacheKeys, boolean autoCreate) {
+        HashMap<JCacheKey, JCacheValue<T>> found = new HashMap<>(cacheKeys.size() * 2);
+        ArrayList<JCacheKey> missKeys = null;
+
+        for (JCacheKey cacheKey : cacheKeys) {
+            JCacheValue<T> cacheObject = getFromHard(cacheKey);
+
+            if (cacheObject != null) {
+                found.put(cacheKey, cacheObject);
+            } else if (!isKnownAbsent(cacheKey)) {
+                if (missKeys == null) {
+                    missKeys = new ArrayList<>();
+                }
+
+                missKeys.add(cacheKey);
+            }
+        }
+
+        if (missKeys != null) {
+            loadMissing(missKeys, autoCreate, found);
+        }
+
+        LinkedHashMap<JCacheKey, T> result = new LinkedHashMap<>(found.size() * 2);
+
+        for (JCacheKey cacheKey : cacheKeys) {
+            JCacheValue<T> cacheObject = found.get(cacheKey);
+
+            if (cacheObject != null && !result.containsKey(cacheKey)) {
+                onCacheHit(cacheObject);
+
+                result.put(cacheKey, cacheObject.value);
+            }
+        }
+
+        return result;
+    }
+
+    private void loadMissing(@NonNull ArrayList<JCacheKey> missKeys, boolean autoCreate,
+                             @NonNull HashMap<JCacheKey, JCacheValue<T>> found) {
+        ArrayList<JCacheKey> loadKeys = new ArrayList<>();
+        ArrayList<LoadingTask<T>> loadTasks = new ArrayList<>();
+
+        HashMap<JCacheKey, LoadingTask<T>> waitTasks = new HashMap<>();
+
+        try {
+            mLock.lock();
+
+            for (JCacheKey cacheKey : missKeys) {
+                if (found.containsKey(cacheKey) || waitTasks.containsKey(cacheKey)) {
+                    continue;
+                }
+
+                JCacheValue<T> cacheObject = getFromHard(cacheKey);
+
+                if (cacheObject == null) {
+                    cacheObject = restoreFromWeak(cacheKey);
+                }
+
+                if (cacheObject != null) {
+                    found.put(cacheKey, cacheObject);
+
+                    continue;
+                }
+
+                if (!autoCreate) {
+                    continue;
+                }
+
+                LoadingTask<T> loadingTask = mLoadingTasks.get(cacheKey);
+
+                if (loadingTask == null) {
+                    loadingTask = new LoadingTask<>(mGeneration);
+
+                    mLoadingTasks.put(cacheKey, loadingTask);
+
+                    loadKeys.add(cacheKey);
+                    loadTasks.add(loadingTask);
+                }
+
+                // 自己登记的也放在这里，重复的key只等一次
+                waitTasks.put(cacheKey, loadingTask);
+            }
+        } finally {
+            mLock.unlock();
+        }
+
+        if (!loadKeys.isEmpty()) {
+            loadAll(loadKeys, loadTasks);
+        }
+
+        for (Map.Entry<JCacheKey, LoadingTask<T>> entry : waitTasks.entrySet()) {
+            found.put(entry.getKey(), entry.getValue().await());
+        }
+    }
+
+    /**
+     * 加载出来的值整批放进hard，只扩容一次；有key加载失败时，加载成功的照常放进去，
+     * 失败的key和等它们的线程都拿到各自的异常，最后把第一个异常抛出去
+     */
+    private void loadAll(@NonNull ArrayList<JCacheKey> cacheKeys, @NonNull ArrayList<LoadingTask<T>> loadingTasks) {
+        int count = cacheKeys.size();
+
+        @SuppressWarnings("unchecked")
+        T[] values = (T[]) new Object[count];
+        Throwable[] errors = new Throwable[count];
+        long[] loadCosts = new long[count];
+
+        loadValues(cacheKeys, values, errors, loadCosts);
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        JCacheValue<T>[] cacheObjects = new JCacheValue[count];
+
+        try {
+            mLock.lock();
+
+            long weight = 0;
+
+            for (int i = 0; i < count; ++i) {
+                if (errors[i] == null && values[i] != null) {
+                    weight += mWeigher == null ? 1 : Math.max(1, mWeigher.weigh(values[i]));
+                }
+            }
+
+            ensureHardCapacity(weight);
+
+            for (int i = 0; i < count; ++i) {
+                if (errors[i] != null) {
+                    continue;
+                }
+
+                JCacheKey cacheKey = cacheKeys.get(i);
+
+                boolean staleReload = isStaleReload(cacheKey);
+
+                // 加载的过程中可能已经被 putIfAbsent 放进去了，以已经存在的为准
+                JCacheValue<T> cacheObject = getFromHard(cacheKey);
+
+                if (cacheObject == null && isAbandoned(loadingTasks.get(i))) {
+                    // 加载的过程中被 invalidate 了，结果不放进缓存
+                    cacheObject = values[i] == null ? null : newCacheValue(cacheKey, values[i]);
+                } else if (cacheObject == null && values[i] == null && mNegativeCache != null) {
+                    // 没有这个key，记下来，cacheObjects[i] 是null
+                    markAbsent(cacheKey, staleReload);
+                } else if (cacheObject == null) {
+                    cacheObject = newCacheValue(cacheKey, values[i]);
+                    cacheObject.loadCost = loadCosts[i];
+
+                    putToHard(cacheKey, cacheObject);
+                }
+
+                recordLoad(staleReload, loadCosts[i]);
+
+                cacheObjects[i] = cacheObject;
+            }
+
+            for (int i = 0; i < count; ++i) {
+                removeLoadingTask(cacheKeys.get(i), loadingTasks.get(i));
+            }
+        } finally {
+            mLock.unlock();
+        }
+
+        Throwable firstError = null;
+
+        for (int i = 0; i < count; ++i) {
+            loadingTasks.get(i).complete(cacheObjects[i], errors[i]);
+
+            if (firstError == null) {
+                firstError = errors[i];
+            }
+        }
+
+        if (firstError instanceof RuntimeException) {
+            throw (RuntimeException) firstError;
+        }
+
+        if (firstError instanceof Error) {
+            throw (Error) firstError;
+        }
+    }
+
+    /**
+     * 先试 createNewCacheObjects 一次加载整批；controller 没实现时在线程池里并发调用 createNewCacheObject，
+     * 当前线程也一起干活，线程池忙的时候也不会卡住
+     */
+    private void loadValues(@NonNull ArrayList<JCacheKey> cacheKeys, @NonNull T[] values,
+                            @NonNull Throwable[] errors, @NonNull long[] loadCosts) {
+        int count = cacheKeys.size();
+
+        if (count == 1) {
+            loadValue(cacheKeys, 0, values, errors, loadCosts);
+
+            return;
+        }
+
+        Map<JCacheKey, T> batchValues;
+
+        long start = System.nanoTime();
+
+        try {
+            batchValues = mCacheController.createNewCacheObjects(Collections.unmodifiableList(cacheKeys));
+        } catch (RuntimeException | Error e) {
+            Arrays.fill(errors, e);
+
+            mLoadFailureCount.addAndGet(count);
+
+            return;
+        }
+
+        if (batchValues != null) {
+            // 批量加载时每个key的耗时按平均算，没有返回的key也算在这一次里
+            long loadCost = (System.nanoTime() - start) / count;
+
+            for (int i = 0; i < count; ++i) {
+                // 没有返回的key是不存在，values[i] 留着null，不再单独加载
+                values[i] = batchValues.get(cacheKeys.get(i));
+                loadCosts[i] = loadCost;
+
+                recordLoadCost(loadCost);
+            }
+
+            return;
+        }
+
+        int parallelism = Math.min(MAX_PARALLEL_LOADS, count);
+
+        AtomicInteger nextIndex = new AtomicInteger(0);
+        CountDownLatch finished = new CountDownLatch(count);
+
+        Runnable worker = () -> {
+            int index;
+
+            while ((index = nextIndex.getAndIncrement()) < count) {
+                loadValue(cacheKeys, index, values, errors, loadCosts);
+
+                finished.countDown();
+            }
+        };
+
+        for (int i = 1; i < parallelism; ++i) {
+            ThreadBus.post(mLoadingLane, worker);
+        }
+
+        worker.run();
+
+        awaitUninterruptibly(finished);
+    }
+
+    private void loadValue(@NonNull ArrayList<JCacheKey> cacheKeys, int index,
+                           @NonNull T[] values, @NonNull Throwable[] errors, @NonNull long[] loadCosts) {
+        long start = System.nanoTime();
+
+        try {
+            values[index] = mCacheController.createNewCacheObject(cacheKeys.get(index));
+        } catch (RuntimeException | Error e) {
+            errors[index] = e;
+
+            mLoadFailureCount.incrementAndGet();
+
+            return;
+        }
+
+        loadCosts[index] = System.nanoTime() - start;
+
+        recordLoadCost(loadCosts[index]);
+    }
+
+    /**
+     * 不加锁，在 negativeCacheTime 内 createNewCacheObject 返回过null的key直接当作没有
+     */
+    private boolean isKnownAbsent(@NonNull JCacheKey cacheKey) {
+        return mNegativeCache != null && mNegativeCache.contains(cacheKey);
+    }
+
+    /**
+     * 这个函数在被调用时一定要放到 mLock 里
+     */
+    private void markAbsent(@NonNull JCacheKey cacheKey, boolean staleReload) {
+        mNegativeCache.add(cacheKey);
+
+        // 超过 maxStaleness 的旧值不能再留着
+        if (staleReload) {
+            mHardCache.remove(cacheKey);
+        }
+
+        mWeakCache.remove(cacheKey);
+
+        if (mTimerWheel != null) {
+            mTimerWheel.deschedule(cacheKey);
+        }
+
+        if (staleReload) {
+            unindexLocked(cacheKey);
+        }
+    }
+
+    /**
+     * 这个函数在被调用时一定要放到 mLock 里，key有值了或者被 invalidate 了
+     */
+    private void forgetAbsent(@NonNull JCacheKey cacheKey) {
+        if (mNegativeCache != null) {
+            mNegativeCache.remove(cacheKey);
+        }
+    }
+
+    /**
+     * 这个函数在被调用时一定要放到 mLock 里，要在新值放进去之前调用
+     *
+     * @return hard里还有这个key的旧值，是因为超过 maxStaleness 才重新加载的
+     */
+    private boolean isStaleReload(@NonNull JCacheKey cacheKey) {
+        JCacheValue<T> oldCacheObject = mHardCache.get(cacheKey);
+
+        return oldCacheObject != null && isTooStale(oldCacheObject);
+    }
+
+    private void recordLoad(boolean staleReload, long loadCost) {
+        if (staleReload) {
+            mStaleReloadCount.incrementAndGet();
+            mStaleReloadTime.addAndGet(loadCost);
+        } else {
+            mMissLoadCount.incrementAndGet();
+            mMissLoadTime.addAndGet(loadCost);
+        }
+    }
+
+    /**
+     * 按两个阈值分开统计的加载次数和耗时，用来调 expireTime 和 maxStaleness
+     */
+    @NonNull
+    public LoadStats loadStats() {
+        return new LoadStats(mMissLoadCount.get(), mMissLoadTime.get(), mStaleReloadCount.get(),
+                mStaleReloadTime.get(), mLoadFailureCount.get(), mRefreshCount.get(), mEarlyRefreshCount.get());
+    }
+
+    /**
+     * 加载耗时的滑动平均，refresh 回来的节点没有自己的耗时，提前刷新时用这个
+     * 多个线程同时写时会丢掉一些样本，对平均值影响不大
+     */
+    private void recordLoadCost(long loadCost) {
+        long average = mAverageLoadCost;
+
+        mAverageLoadCost = average == 0L ? loadCost : average + (loadCost - average) / LOAD_COST_SMOOTHING;
+    }
+
+    private static void awaitUninterruptibly(@NonNull CountDownLatch latch) {
+        boolean interrupted = false;
+
+        while (true) {
+            try {
+                latch.await();
+
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 直接覆盖已经在缓存里的值，整批只加一次锁，hard只扩容一次；和 put 一样，依赖这些key的节点会被整批级联删掉，
+     * 正在加载的同一个key加载完之后也不会覆盖这些值
+     */
+    public void putAll(@NonNull Map<JCacheKey, T> entries) {
+        putAll(entries, true);
+    }
+
+    /**
+     * @return 真正放进去的条数
+     */
+    private int putAll(@NonNull Map<JCacheKey, T> entries, boolean overwrite) {
+        if (entries.isEmpty()) {
+            return 0;
+        }
+
+        LinkedHashMap<JCacheKey, JCacheValue<T>> cacheObjects = new LinkedHashMap<>(entries.size() * 2);
+
+        long weight = 0;
+
+        try {
+            mLock.lock();
+
+            for (Map.Entry<JCacheKey, T> entry : entries.entrySet()) {
+                JCacheKey cacheKey = entry.getKey();
+
+                JCacheValue<T> oldCacheObject = getFromHard(cacheKey);
+
+                if (!overwrite && oldCacheObject != null) {
+                    continue;
+                }
+
+                JCacheValue<T> cacheObject = newCacheValue(cacheKey, entry.getValue(), oldCacheObject);
+
+                forgetAbsent(cacheKey);
+
+                // 和 put 一样，正在加载的同一个key加载完之后不能覆盖这个值
+                abandonLoading(cacheKey);
+
+                cacheObjects.put(cacheKey, cacheObject);
+
+                weight += hardWeightOf(cacheObject);
+            }
+
+            if (cacheObjects.isEmpty()) {
+                return 0;
+            }
+
+            mWeakCache.removeAll(cacheObjects.keySet());
+
+            ensureHardCapacity(weight);
+
+            // 扩容之后放得下，就整批放进hard，hard里也只加一次锁；分段、分区时每个segment、分区放不放得下不好算，一个个放
+            if (!(mHardCache instanceof SegmentedHotEndLruCache) && mPartitionedHardCache == null &&
+                    mHardCache.size() + weight <= mHardCache.maxSize()) {
+                mHardCache.putAll(cacheObjects);
+
+                for (Map.Entry<JCacheKey, JCacheValue<T>> entry : cacheObjects.entrySet()) {
+                    scheduleExpire(entry.getKey(), entry.getValue());
+
+                    indexLocked(entry.getKey(), entry.getValue());
+                }
+            } else {
+                for (Map.Entry<JCacheKey, JCacheValue<T>> entry : cacheObjects.entrySet()) {
+                    putToHard(entry.getKey(), entry.getValue());
+                }
+            }
+        } finally {
+            mLock.unlock();
+        }
+
+        // 只有真正放进去的key变了，没有覆盖的跳过
+        cascadeInvalidate(cacheObjects.keySet());
+
+        return cacheObjects.size();
+    }
+
+    /**
+     * 按key原子地读改写，不管原来有没有值都会调用 function，function 返回null时删掉这个key
+     * 同一个key的 compute、computeIfPresent、merge、replace 互斥，不同key的可以并行；
+     * function 不在 mLock 里调用，期间别的线程 put 了这个key时会用新的值重新调用 function
+     * function 里不能再操作同一个cache
+     *
+     * @return 新的值
+     */
+    @Nullable
+    public T compute(@NonNull JCacheKey cacheKey, @NonNull ComputeFunction<T> function) {
+        return compute(cacheKey, function, false);
+    }
+
+    /**
+     * 和 compute 一样，只是没有值时不调用 function，直接返回null
+     */
+    @Nullable
+    public T computeIfPresent(@NonNull JCacheKey cacheKey, @NonNull ComputeFunction<T> function) {
+        return compute(cacheKey, function, true);
+    }
+
+    /**
+     * 没有值时放 value 进去，有值时放 function(oldValue, value) 的结果进去
+     *
+     * @return 新的值
+     */
+    @Nullable
+    public T merge(@NonNull JCacheKey cacheKey, @NonNull T value, @NonNull MergeFunction<T> function) {
+        return compute(cacheKey, (key, oldValue) -> oldValue == null ? value : function.merge(oldValue, value), false);
+    }
+
+    /**
+     * 现在的值 equals expectedValue 时才替换成 newValue
+     *
+     * @return 替换成功
+     */
+    public boolean replace(@NonNull JCacheKey cacheKey, @NonNull T expectedValue, @NonNull T newValue) {
+        ReentrantLock keyLock = keyLockFor(cacheKey);
+
+        keyLock.lock();
+
+        try {
+            while (true) {
+                JCacheValue<T> oldCacheObject = currentCacheObject(cacheKey);
+
+                if (oldCacheObject == null || !oldCacheObject.value.equals(expectedValue)) {
+                    return false;
+                }
+
+                if (installCacheObject(cacheKey, oldCacheObject, newValue)) {
+                    return true;
+                }
+            }
+        } finally {
+            keyLock.unlock();
+        }
+    }
+
+    @Nullable
+    private T compute(@NonNull JCacheKey cacheKey, @NonNull ComputeFunction<T> function, boolean onlyIfPresent) {
+        ReentrantLock keyLock = keyLockFor(cacheKey);
+
+        keyLock.lock();
+
+        try {
+            while (true) {
+                JCacheValue<T> oldCacheObject = currentCacheObject(cacheKey);
+
+                if (oldCacheObject == null && onlyIfPresent) {
+                    return null;
+                }
+
+                T newValue = function.compute(cacheKey, oldCacheObject == null ? null : oldCacheObject.value);
+
+                // 期间被 put、加载或者 invalidate 改掉了，按新的值重来
+                if (installCacheObject(cacheKey, oldCacheObject, newValue)) {
+                    return newValue;
+                }
+            }
+        } finally {
+            keyLock.unlock();
+        }
+    }
+
+    @NonNull
+    private ReentrantLock keyLockFor(@NonNull JCacheKey cacheKey) {
+        int hash = cacheKey.hashCode() * 0x9E3779B9;
+
+        return mKeyLocks[(hash ^ (hash >>> 16)) & (KEY_LOCK_STRIPES - 1)];
+    }
+
+    /**
+     * hard里没有时从weak里找回来，这样 installCacheObject 时只需要和hard里的比较
+     */
+    @Nullable
+    private JCacheValue<T> currentCacheObject(@NonNull JCacheKey cacheKey) {
+        JCacheValue<T> cacheObject = getFromHard(cacheKey);
+
+        if (cacheObject != null) {
+            return cacheObject;
+        }
+
+        mLock.lock();
+
+        try {
+            cacheObject = getFromHard(cacheKey);
+
+            return cacheObject != null ? cacheObject : restoreFromWeak(cacheKey);
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * hard里还是 expectCacheObject 时才把 newValue 放进去，newValue 为null时删掉这个key
+     *
+     * @return false 时已经被别的线程改掉了
+     */
+    private boolean installCacheObject(@NonNull JCacheKey cacheKey, @Nullable JCacheValue<T> expectCacheObject,
+                                       @Nullable T newValue) {
+        mLock.lock();
+
+        try {
+            if (getFromHard(cacheKey) != expectCacheObject) {
+                return false;
+            }
+
+            if (newValue == null) {
+                // 本来就没有，什么都没变
+                if (expectCacheObject == null) {
+                    return true;
+                }
+
+                removeLocked(cacheKey);
+            } else {
+                putLocked(cacheKey, newValue, expectCacheObject);
+            }
+        } finally {
+            mLock.unlock();
+        }
+
+        cascadeInvalidate(Collections.singletonList(cacheKey));
+
+        return true;
+    }
+
+    /**
+     * 从hard和weak里删掉这个key，正在加载的同一个key加载完之后不会再放进来
+     */
+    public void invalidate(@NonNull JCacheKey cacheKey) {
+        mLock.lock();
+
+        try {
+            removeLocked(cacheKey);
+        } finally {
+            mLock.unlock();
+        }
+
+        cascadeInvalidate(Collections.singletonList(cacheKey));
+    }
+
+    /**
+     * 整批从hard和weak里删掉，只加一次锁
+     */
+    public void invalidateAll(@NonNull Collection<JCacheKey> cacheKeys) {
+        if (cacheKeys.isEmpty()) {
+            return;
+        }
+
+        mLock.lock();
+
+        try {
+            removeAllLocked(cacheKeys);
+        } finally {
+            mLock.unlock();
+        }
+
+        cascadeInvalidate(cacheKeys);
+    }
+
+    /**
+     * 删掉第 index 个分量是 component 的所有key，index 要在 JCacheBuilder.indexedComponents 里声明过
+     * 开销和匹配的key数成正比，只加一次锁
+     *
+     * @return 删掉的key数
+     */
+    public int invalidateByComponent(int index, @NonNull Object component) {
+        ArrayList<JCacheKey> cacheKeys;
+
+        int removedCount;
+
+        mLock.lock();
+
+        try {
+            // 删的过程中会改索引里的set
+            cacheKeys = new ArrayList<>(indexOrThrow().keysForComponent(index, component));
+
+            removedCount = removeAllLocked(cacheKeys);
+        } finally {
+            mLock.unlock();
+        }
+
+        cascadeInvalidate(cacheKeys);
+
+        return removedCount;
+    }
+
+    /**
+     * 删掉 Tagger 给过这个tag的所有key，要在 JCacheBuilder.tagger 里声明过
+     *
+     * @return 删掉的key数
+     */
+    public int invalidateByTag(@NonNull Object tag) {
+        ArrayList<JCacheKey> cacheKeys;
+
+        int removedCount;
+
+        mLock.lock();
+
+        try {
+            cacheKeys = new ArrayList<>(indexOrThrow().keysForTag(tag));
+
+            removedCount = removeAllLocked(cacheKeys);
+        } finally {
+            mLock.unlock();
+        }
+
+        cascadeInvalidate(cacheKeys);
+
+        return removedCount;
+    }
+
+    @NonNull
+    private SecondaryIndex<T> indexOrThrow() {
+        if (mSecondaryIndex == null) {
+            throw new RuntimeException("JCache " + mTag + " has no secondary index, " +
+                    "declare it by JCacheBuilder.indexedComponents or JCacheBuilder.tagger");
+        }
+
+        return mSecondaryIndex;
+    }
+
+    /**
+     * 整批从hard和weak里删掉，这个函数在被调用时一定要放到 mLock 里
+     *
+     * @return hard和weak里真正删掉的个数
+     */
+    private int removeAllLocked(@NonNull Collection<JCacheKey> cacheKeys) {
+        if (cacheKeys.isEmpty()) {
+            return 0;
+        }
+
+        int removedCount = mHardCache.removeAll(cacheKeys) + mWeakCache.removeAll(cacheKeys);
+
+        for (JCacheKey cacheKey : cacheKeys) {
+            onRemovedLocked(cacheKey);
+        }
+
+        return removedCount;
+    }
+
+    /**
+     * 删掉 predicate 返回true的节点，在调用线程上分批做，不会一直占着锁：
+     * 1、hard和weak都是用 JLruCache.cursor 一段一段往后看，每段 BULK_LOAD_BATCH_SIZE 个，只在看这一段时加一下底层LRU的锁
+     * 2、predicate 在锁外面调用，一段看完之后加一次 mLock 把命中的删掉
+     * 3、删之前会确认节点还是刚才看到的那个，期间被 put 或者刷新过的不会被误删
+     * 期间放进来的key可能看到也可能看不到，挪到另一层的节点可能会被漏掉
+     *
+     * @return 删掉的个数
+     */
+    public int invalidateIf(@NonNull InvalidatePredicate<T> predicate) {
+        return invalidateIf(predicate, mHardCache.cursor(), false) +
+                invalidateIf(predicate, mWeakCache.cursor(), true);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <V> int invalidateIf(@NonNull InvalidatePredicate<T> predicate,
+                                 @NonNull JLruCache.Cursor<JCacheKey, JCacheValue<V>> cursor, boolean weak) {
+        int removedCount = 0;
+
+        ArrayList<JCacheKey> keys = new ArrayList<>(BULK_LOAD_BATCH_SIZE);
+        ArrayList<JCacheValue<V>> values = new ArrayList<>(BULK_LOAD_BATCH_SIZE);
+
+        ArrayList<JCacheKey> batchKeys = new ArrayList<>(BULK_LOAD_BATCH_SIZE);
+        ArrayList<JCacheValue<V>> batchValues = new ArrayList<>(BULK_LOAD_BATCH_SIZE);
+
+        boolean hasNext = true;
+
+        while (hasNext) {
+            // callback 是在底层LRU的锁里调用的，这里只收集，不能碰 mLock
+            hasNext = cursor.next(BULK_LOAD_BATCH_SIZE, (key, value) -> {
+                keys.add(key);
+                values.add(value);
+
+                return true;
+            });
+
+            int count = keys.size();
+
+            for (int i = 0; i < count; ++i) {
+                JCacheValue<V> cacheObject = values.get(i);
+
+                T value = weak ? ((WeakReference<T>) cacheObject.value).get() : (T) cacheObject.value;
+
+                // 已经被回收的交给 trimWeak 去清理
+                if (value == null || !predicate.shouldInvalidate(keys.get(i), value)) {
+                    continue;
+                }
+
+                batchKeys.add(keys.get(i));
+                batchValues.add(cacheObject);
+            }
+
+            keys.clear();
+            values.clear();
+
+            if (!batchKeys.isEmpty()) {
+                removedCount += removeIfSame(batchKeys, batchValues, weak);
+
+                batchKeys.clear();
+                batchValues.clear();
+            }
+        }
+
+        return removedCount;
+    }
+
+    private <V> int removeIfSame(@NonNull ArrayList<JCacheKey> keys, @NonNull ArrayList<JCacheValue<V>> values,
+                                 boolean weak) {
+        ArrayList<JCacheKey> removedKeys = new ArrayList<>(keys.size());
+
+        mLock.lock();
+
+        try {
+            for (int i = 0; i < keys.size(); ++i) {
+                JCacheKey cacheKey = keys.get(i);
+
+                // 期间被替换过或者挪到另一层的就不删了，新的节点 predicate 没有看过
+                Object current = weak ? mWeakCache.get(cacheKey) : mHardCache.get(cacheKey);
+
+                if (current != values.get(i)) {
+                    continue;
+                }
+
+                removeLocked(cacheKey);
+
+                removedKeys.add(cacheKey);
+            }
+        } finally {
+            mLock.unlock();
+        }
+
+        // 每一批级联一次
+        cascadeInvalidate(removedKeys);
+
+        return removedKeys.size();
+    }
+
+    /**
+     * 这个函数在被调用时一定要放到 mLock 里
+     */
+    private void removeLocked(@NonNull JCacheKey cacheKey) {
+        mHardCache.remove(cacheKey);
+        mWeakCache.remove(cacheKey);
+
+        onRemovedLocked(cacheKey);
+    }
+
+    /**
+     * key被 invalidate 之后要一起清掉的状态，这个函数在被调用时一定要放到 mLock 里
+     */
+    private void onRemovedLocked(@NonNull JCacheKey cacheKey) {
+        if (mTimerWheel != null) {
+            mTimerWheel.deschedule(cacheKey);
+        }
+
+        unindexLocked(cacheKey);
+
+        forgetAbsent(cacheKey);
+        abandonLoading(cacheKey);
+    }
+
+    /**
+     * 节点放进cache时登记二级索引和依赖，这个函数在被调用时一定要放到 mLock 里
+     */
+    private void indexLocked(@NonNull JCacheKey cacheKey, @NonNull JCacheValue<T> value) {
+        if (mSecondaryIndex != null) {
+            mSecondaryIndex.add(cacheKey, value.value);
+        }
+
+        Collection<JCacheDependency> dependencies = mCacheController.dependenciesOf(cacheKey, value.value);
+
+        if (dependencies != null && !dependencies.isEmpty()) {
+            mHasDependencies = true;
+        }
+
+        if (mHasDependencies) {
+            JCacheContainer.DEPENDENCY_GRAPH.setDependencies(mCacheClazz, cacheKey, dependencies);
+        }
+    }
+
+    /**
+     * 这个函数在被调用时一定要放到 mLock 里
+     */
+    private void unindexLocked(@NonNull JCacheKey cacheKey) {
+        if (mSecondaryIndex != null) {
+            mSecondaryIndex.remove(cacheKey);
+        }
+
+        if (mHasDependencies) {
+            JCacheContainer.DEPENDENCY_GRAPH.removeDependencies(mCacheClazz, cacheKey);
+        }
+    }
+
+    /**
+     * cacheKeys 被改过或者删掉了，把依赖它们的节点(包括别的cache里的)整批删掉
+     * 一定要在 mLock 外面调用，里面会去拿别的cache的锁
+     */
+    private void cascadeInvalidate(@NonNull Collection<JCacheKey> cacheKeys) {
+        if (!cacheKeys.isEmpty()) {
+            JCacheContainer.cascadeInvalidate(mCacheClazz, cacheKeys);
+        }
+    }
+
+    /**
+     * 级联删除时 JCacheContainer 调用，不再继续级联，依赖图已经把间接依赖的节点都找出来了
+     */
+    void invalidateDependents(@NonNull Collection<JCacheKey> cacheKeys) {
+        mLock.lock();
+
+        try {
+            removeAllLocked(cacheKeys);
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * 正在加载的这个key的结果已经过时了，加载完之后只交给等它的线程，不再放进缓存
+     * 这个函数在被调用时一定要放到 mLock 里
+     */
+    private void abandonLoading(@NonNull JCacheKey cacheKey) {
+        LoadingTask<T> loadingTask = mLoadingTasks.get(cacheKey);
+
+        if (loadingTask != null) {
+            loadingTask.mAbandoned = true;
+        }
+    }
+
+    /**
+     * 在 lane 对应的线程上把 source 里的数据一批批放进缓存，比如在 ThreadBus.Db 上读数据库的cursor
+     * 已经在hard里的key不会被覆盖；source 用完之后一定会被close
+     */
+    public void loadAll(@NonNull BulkLoadSource<T> source, int lane, @Nullable BulkLoadCallback callback) {
+        ThreadBus.post(lane, () -> {
+            int count = 0;
+
+            Throwable error = null;
+
+            try {
+                int estimatedCount = source.estimatedCount();
+
+                // 没有weigher时知道总条数就能一次扩好；有weigher时只能每一批扩一次
+                if (estimatedCount > 0 && mWeigher == null) {
+                    mLock.lock();
+
+                    try {
+                        ensureHardCapacity(estimatedCount);
+                    } finally {
+                        mLock.unlock();
+                    }
+                }
+
+                LinkedHashMap<JCacheKey, T> batch = new LinkedHashMap<>(BULK_LOAD_BATCH_SIZE * 2);
+
+                while (source.moveToNext()) {
+                    batch.put(source.currentKey(), source.currentValue());
+
+                    if (batch.size() >= BULK_LOAD_BATCH_SIZE) {
+                        count += putAll(batch, false);
+
+                        batch.clear();
+                    }
+                }
+
+                count += putAll(batch, false);
+            } catch (RuntimeException | Error e) {
+                Log.e(mTag, "loadAll error", e);
+
+                error = e;
+            } finally {
+                source.close();
+            }
+
+            if (callback != null) {
+                callback.onBulkLoadFinished(count, error);
+            }
+        });
+    }
+
+    /**
+     * 一批节点要放进来之前先扩容一次，不用 putToHard 里一步步地扩
+     * 这个函数在被调用时一定要放到 mLock 里
+     */
+    private void ensureHardCapacity(long incomingWeight) {
+        int hardMaxSize = mHardCache.maxSize();
+
+        long needSize = mHardCache.size() + incomingWeight;
+
+        if (needSize <= hardMaxSize || hardMaxSize >= mHardMaxSize) {
+            return;
+        }
+
+        int newHardMaxSize = (int) Math.min(Math.max(needSize, (long) (hardMaxSize * DEFAULT_SIZE_INCREASE_STEP)),
+                mHardMaxSize);
+
+        Log.i(mTag, "ensureHardCapacity newHardMaxSize: " + newHardMaxSize);
+
+        mHardCache.resize(newHardMaxSize, mHardCache.hotPercent());
+    }
+
+    /**
+     * 这个函数在被调用时一定要放到 mLock 里
+     */
+    @Nullable
+    private JCacheValue<T> restoreFromWeak(@NonNull JCacheKey cacheKey) {
+        JCacheValue<WeakReference<T>> weakCacheObject = mWeakCache.remove(cacheKey);
+
+        if (weakCacheObject == null) {
+            return null;
+        }
+
+        T weakValue = weakCacheObject.value.get();
+
+        if (weakValue == null || isUnusable(weakCacheObject)) {
+            return null;
+        }
+
+        JCacheValue<T> cacheObject = fromWeak(weakCacheObject, weakValue);
+
+        putToHard(cacheKey, cacheObject);
+
+        return cacheObject;
+    }
+
+    /**
+     * createNewCacheObject 是在锁外面调用的，一个慢的加载不会阻塞其他key的读写
+     * 开了 negativeCacheTime 时 createNewCacheObject 返回null会返回null
+     */
+    @Nullable
+    private JCacheValue<T> load(@NonNull JCacheKey cacheKey, @NonNull LoadingTask<T> loadingTask) {
+        T value;
+
+        long start = System.nanoTime();
+
+        try {
+            value = mCacheController.createNewCacheObject(cacheKey);
+        } catch (RuntimeException | Error e) {
+            mLoadFailureCount.incrementAndGet();
+
+            finishLoading(cacheKey, loadingTask, null, e);
+
+            throw e;
+        }
+
+        long loadCost = System.nanoTime() - start;
+
+        recordLoadCost(loadCost);
+
+        JCacheValue<T> cacheObject;
+
+        try {
+            mLock.lock();
+
+            boolean staleReload = isStaleReload(cacheKey);
+
+            // 加载的过程中可能已经被 putIfAbsent 放进去了，以已经存在的为准
+            cacheObject = getFromHard(cacheKey);
+
+            if (cacheObject == null && isAbandoned(loadingTask)) {
+                // 加载的过程中被 invalidate 或者 clear 了，结果不放进缓存
+                cacheObject = value == null ? null : newCacheValue(cacheKey, value);
+            } else if (cacheObject == null && value == null && mNegativeCache != null) {
+                markAbsent(cacheKey, staleReload);
+            } else if (cacheObject == null) {
+                cacheObject = newCacheValue(cacheKey, value);
+                cacheObject.loadCost = loadCost;
+
+                putToHard(cacheKey, cacheObject);
+            }
+
+            recordLoad(staleReload, loadCost);
+        } finally {
+            mLock.unlock();
+        }
+
+        finishLoading(cacheKey, loadingTask, cacheObject, null);
+
+        return cacheObject;
+    }
+
+    private void finishLoading(@NonNull JCacheKey cacheKey, @NonNull LoadingTask<T> loadingTask,
+                               @Nullable JCacheValue<T> result, @Nullable Throwable error) {
+        mLock.lock();
+
+        removeLoadingTask(cacheKey, loadingTask);
+
+        mLock.unlock();
+
+        loadingTask.complete(result, error);
+    }
+
+    /**
+     * clear 之后同一个key可能已经有新的加载了，不能把它删掉；这个函数在被调用时一定要放到 mLock 里
+     */
+    private void removeLoadingTask(@NonNull JCacheKey cacheKey, @NonNull LoadingTask<T> loadingTask) {
+        if (mLoadingTasks.get(cacheKey) == loadingTask) {
+            mLoadingTasks.remove(cacheKey);
+        }
+    }
+
+    /**
+     * 这个函数在被调用时一定要放到 mLock 里
+     */
+    private boolean isAbandoned(@NonNull LoadingTask<T> loadingTask) {
+        return loadingTask.mAbandoned || loadingTask.mGeneration != mGeneration;
+    }
+
+    private int hardWeightOf(@NonNull JCacheValue<T> value) {
+        return mWeigher == null ? 1 : Math.max(1, mWeigher.weigh(value.value));
+    }
+
+    private void putToHard(@NonNull JCacheKey cacheKey, @NonNull JCacheValue<T> value) {
+        // 没有被准入时会放到weak里，也要索引
+        indexLocked(cacheKey, value);
+
+        // 分段时扩一次不一定能让key所在的segment变大，所以要循环
+        while (mHardCache.willTrimOnPut(cacheKey, value)) {
+            // key所在的分区到了自己的上限，只在这个分区里腾地方，不去挤别的分区；总的size超了或者还能扩容时走下面的流程
+            if (mPartitionedHardCache != null) {
+                JLruCache<JCacheKey, JCacheValue<T>> partition = mPartitionedHardCache.partitionFor(cacheKey);
+
+                if (partition.maxSize() >= Math.min(mPartitionedHardCache.partitionQuota(), mHardMaxSize) &&
+                        partition.willTrimOnPut(cacheKey, value)) {
+                    if (!trimPartitionOnPut(partition, cacheKey, value)) {
+                        return;
+                    }
+
+                    continue;
+                }
+            }
+
+            int hardMaxSize = mHardCache.maxSize();
+
+            if (hardMaxSize >= mHardMaxSize) {
+                // 新节点没有冷端要被挤掉的节点热，就直接放到weak里，不去动hard；weak里的节点也要靠时间轮过期
+                if (!mHardCache.admit(cacheKey, value)) {
+                    putToWeak(cacheKey, value);
+
+                    scheduleExpire(cacheKey, value);
+
+                    return;
+                }
+
+                // 到上限了就不再扩容，先把冷端可以trim的节点挪到weak里腾地方
+                if (demoteHard(DEMOTE_HARD_MAX_COUNT_ON_PUT, hardMaxSize - hardWeightOf(value)) > 0) {
+                    continue;
+                }
+
+                // 剩下的都是 canValueBeTrimmed 返回false的节点，这种节点是保证不丢的，只能超过上限
+                Log.w(mTag, "putToHard exceed maxHardSize: " + mHardMaxSize + ", curSize: " +
+                        mHardCache.size());
+            }
+
+            int newHardMaxSize = (int) Math.min(hardMaxSize * DEFAULT_SIZE_INCREASE_STEP, Integer.MAX_VALUE);
+
+            if (hardMaxSize < mHardMaxSize) {
+                newHardMaxSize = Math.min(newHardMaxSize, mHardMaxSize);
+            }
+
+            Log.i(mTag, "putToHard newHardMaxSize: " + newHardMaxSize);
+
+            mHardCache.resize(newHardMaxSize, mHardCache.hotPercent());
+        }
+
+        mHardCache.put(cacheKey, value);
+
+        scheduleExpire(cacheKey, value);
+    }
+
+    /**
+     * 分区满了的时候给新节点腾地方，这个函数在被调用时一定要放到 mLock 里
+     *
+     * @return false 时新节点没有被准入，已经放到weak里了
+     */
+    private boolean trimPartitionOnPut(@NonNull JLruCache<JCacheKey, JCacheValue<T>> partition,
+                                       @NonNull JCacheKey cacheKey, @NonNull JCacheValue<T> value) {
+        if (!partition.admit(cacheKey, value)) {
+            putToWeak(cacheKey, value);
+
+            scheduleExpire(cacheKey, value);
+
+            return false;
+        }
+
+        int partitionMaxSize = partition.maxSize();
+
+        if (demoteHard(partition, DEMOTE_HARD_MAX_COUNT_ON_PUT, partitionMaxSize - hardWeightOf(value)) > 0) {
+            return true;
+        }
+
+        // 和总的上限一样，canValueBeTrimmed 返回false的节点只能让分区超过上限
+        Log.w(mTag, "putToHard exceed partitionMaxHardSize: " + partitionMaxSize + ", curSize: " +
+                partition.size());
+
+        partition.resize(partition.size() + hardWeightOf(value), partition.hotPercent());
+
+        return true;
+    }
+
+    /**
+     * 把 JCacheBuilder.partitionComponent 那个分量是 partition 的key从hard和weak里都拿掉，比如退出一个账号时
+     * 整个分区直接丢掉，O(1)，不会一个个去删：
+     * 1、这个分区正在加载的key加载完之后不会再放进来
+     * 2、二级索引和依赖图里的旧key在 Shit 线程上清理，时间轮里的等到了时间自己删掉
+     * 3、不知道删了哪些key，所以不会级联删除依赖这个分区的节点，需要时对依赖的cache调用 invalidatePartition
+     */
+    public void invalidatePartition(@NonNull Object partition) {
+        PartitionedLruCache<JCacheValue<T>> hardCache = mPartitionedHardCache;
+
+        if (hardCache == null || mPartitionedWeakCache == null) {
+            throw new RuntimeException("JCache " + mTag + " is not partitioned, " +
+                    "declare it by JCacheBuilder.partitionComponent");
+        }
+
+        mLock.lock();
+
+        try {
+            hardCache.dropPartition(partition);
+            mPartitionedWeakCache.dropPartition(partition);
+
+            // 只有正在加载的key，不会很多
+            for (Map.Entry<JCacheKey, LoadingTask<T>> entry : mLoadingTasks.entrySet()) {
+                if (hardCache.isInPartition(entry.getKey(), partition)) {
+                    entry.getValue().mAbandoned = true;
+                }
+            }
+
+            // 连续删几个分区时只清理一次
+            if (mSecondaryIndex != null || mHasDependencies) {
+                ThreadBus.removeCallbacks(ThreadBus.Shit, mPurgeIndexesTask, null);
+                ThreadBus.post(ThreadBus.Shit, mPurgeIndexesTask);
+            }
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * O(1)，切换账号时可以直接在主线程上调用：
+     * 1、hard、weak、时间轮、二级索引都是换一张新的空表，旧的节点马上就看不到了，整体交给GC，不会一个个去删
+     * 2、generation 加一，正在加载的旧数据加载完之后不会再放进来，新的get会重新加载
+     * 3、依赖图是所有cache共用的，旧节点的依赖在 Shit 线程上清理，清理之前最多多删一些新的节点
+     */
+    public void clear() {
+        mLock.lock();
+
+        mGeneration++;
+
+        mHardCache.clear();
+        mWeakCache.clear();
+
+        mLoadingTasks = new HashMap<>();
+
+        if (mTimerWheel != null) {
+            mTimerWheel.clear();
+        }
+
+        if (mNegativeCache != null) {
+            mNegativeCache.clear();
+        }
+
+        if (mSecondaryIndex != null) {
+            mSecondaryIndex.clear();
+        }
+
+        if (mWeakBloomFilter != null) {
+            mWeakBloomFilter = new BloomFilter(mWeakInitSize);
+        }
+
+        if (mHasDependencies) {
+            ThreadBus.post(ThreadBus.Shit, mPurgeIndexesTask);
+        }
+
+        mLock.unlock();
+    }
+
+    public void releaseCache() {
+        clear();
+
+        mLock.lock();
+
+        // 依赖图是按 cacheClazz 存的，同一个class之后可能又建了新的cache，clear 里已经post出去的清理不能再去动它
+        mReleased = true;
+
+        if (mHasDependencies) {
+            JCacheContainer.DEPENDENCY_GRAPH.removeAllDependencies(mCacheClazz);
+        }
+
+        mLock.unlock();
+
+        mRefreshQueue.clear();
+
+        stopTrimTask();
+    }
+
+    @SuppressWarnings("rawtypes")
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof JCache)) {
+            return false;
+        }
+
+        JCache other = (JCache) o;
+
+        return mCacheName.equals(other.mCacheName);
+    }
+
+    @Override
     public int hashCode() {
         return mCacheName.hashCode();
     }
@@ -291,18 +2367,276 @@ public class JCache<T> {
         public void run() {
             trimWeak();
 
+            // trim之后weak变小了，顺便把删掉的key从布隆过滤器里去掉
+            rebuildWeakBloomFilter();
+
+            pruneIndexes(false);
+
             ThreadBus.postDelayed(ThreadBus.Shit, mTrimWeakTask, TRIM_WEAK_INTERVAL);
         }
     };
 
+    private final Runnable mPurgeIndexesTask = new Runnable() {
+        @Override
+        public void run() {
+            pruneIndexes(true);
+        }
+    };
+
+    private final Runnable mRebuildWeakBloomTask = new Runnable() {
+        @Override
+        public void run() {
+            rebuildWeakBloomFilter();
+        }
+    };
+
+    /**
+     * weak里被回收的key不会马上从二级索引和依赖图里删掉，里面的key比cache里多出一倍时整个对一遍
+     *
+     * @param force clear 之后不管多出多少都对一遍
+     */
+    private void pruneIndexes(boolean force) {
+        if (mSecondaryIndex == null && !mHasDependencies) {
+            return;
+        }
+
+        mLock.lock();
+
+        try {
+            if (mReleased) {
+                return;
+            }
+
+            int liveSize = mHardCache.size() + mWeakCache.size();
+
+            int indexedSize = Math.max(mSecondaryIndex == null ? 0 : mSecondaryIndex.size(),
+                    mHasDependencies ? JCacheContainer.DEPENDENCY_GRAPH.dependencyCount(mCacheClazz) : 0);
+
+            if (!force && indexedSize <= Math.max(liveSize * 2, mWeakInitSize)) {
+                return;
+            }
+
+            HashSet<JCacheKey> liveKeys = new HashSet<>(liveSize * 2);
+
+            mHardCache.forEach((key, value) -> {
+                liveKeys.add(key);
+
+                return true;
+            });
+
+            mWeakCache.forEach((key, value) -> {
+                liveKeys.add(key);
+
+                return true;
+            });
+
+            if (mSecondaryIndex != null) {
+                mSecondaryIndex.retainAll(liveKeys);
+            }
+
+            if (mHasDependencies) {
+                JCacheContainer.DEPENDENCY_GRAPH.retainDependencies(mCacheClazz, liveKeys);
+            }
+
+            Log.i(mTag, "pruneIndexes indexedSize: " + indexedSize + ", liveSize: " + liveSize);
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    private void rebuildWeakBloomFilter() {
+        if (mWeakBloomFilter == null) {
+            return;
+        }
+
+        mLock.lock();
+
+        try {
+            mWeakBloomRebuildPosted.set(false);
+
+            BloomFilter bloomFilter = new BloomFilter(Math.max(mWeakCache.size() * 2, mWeakInitSize));
+
+            mWeakCache.forEach((key, value) -> {
+                bloomFilter.put(key);
+
+                return true;
+            });
+
+            mWeakBloomFilter = bloomFilter;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    private final Runnable mExpireTask = new Runnable() {
+        @Override
+        public void run() {
+            expireEntries();
+
+            ThreadBus.postDelayed(ThreadBus.Shit, mExpireTask, EXPIRE_INTERVAL);
+        }
+    };
+
     private void startTrimTask() {
         ThreadBus.postDelayed(ThreadBus.Shit, mTrimHardTask, TRIM_HARD_INTERVAL);
         ThreadBus.postDelayed(ThreadBus.Shit, mTrimWeakTask, TRIM_WEAK_INTERVAL);
+
+        if (mTimerWheel != null) {
+            ThreadBus.postDelayed(ThreadBus.Shit, mExpireTask, EXPIRE_INTERVAL);
+        }
     }
 
     private void stopTrimTask() {
         ThreadBus.removeCallbacks(ThreadBus.Shit, mTrimHardTask, null);
         ThreadBus.removeCallbacks(ThreadBus.Shit, mTrimWeakTask, null);
+        ThreadBus.removeCallbacks(ThreadBus.Shit, mExpireTask, null);
+        ThreadBus.removeCallbacks(ThreadBus.Shit, mRebuildWeakBloomTask, null);
+        ThreadBus.removeCallbacks(ThreadBus.Shit, mPurgeIndexesTask, null);
+    }
+
+    /**
+     * 一次正在进行中的 createNewCacheObject，同一个key的其他miss线程等待它的结果，getAsync 的调用方在完成时被回调
+     */
+    private static class LoadingTask<T> {
+
+        private final CountDownLatch mLatch = new CountDownLatch(1);
+
+        private JCacheValue<T> mResult;
+        private Throwable mError;
+
+        // 开始加载时 JCache 的 generation
+        private final int mGeneration;
+
+        // 加载的过程中这个key被 put 或者 invalidate 了，只在 mLock 里读写
+        private boolean mAbandoned = false;
+
+        LoadingTask(int generation) {
+            mGeneration = generation;
+        }
+
+        // getAsync 登记的回调，完成之后置成null，只在 synchronized 里读写
+        @Nullable
+        private ArrayList<AsyncWaiter<T>> mWaiters = new ArrayList<>(1);
+
+        void complete(@Nullable JCacheValue<T> result, @Nullable Throwable error) {
+            mResult = result;
+            mError = error;
+
+            mLatch.countDown();
+
+            ArrayList<AsyncWaiter<T>> waiters;
+
+            synchronized (this) {
+                waiters = mWaiters;
+
+                mWaiters = null;
+            }
+
+            T value = result == null ? null : result.value;
+
+            for (AsyncWaiter<T> waiter : waiters) {
+                deliver(waiter.lane, waiter.cacheKey, value, error, waiter.callback);
+            }
+        }
+
+        void addCallback(@NonNull JCacheKey cacheKey, int lane, @NonNull GetCallback<T> callback) {
+            synchronized (this) {
+                if (mWaiters != null) {
+                    mWaiters.add(new AsyncWaiter<>(cacheKey, lane, callback));
+
+                    return;
+                }
+            }
+
+            // 已经完成了，直接回调
+            deliver(lane, cacheKey, mResult == null ? null : mResult.value, mError, callback);
+        }
+
+        @Nullable
+        JCacheValue<T> await() {
+            awaitUninterruptibly(mLatch);
+
+            if (mError instanceof RuntimeException) {
+                throw (RuntimeException) mError;
+            }
+
+            if (mError instanceof Error) {
+                throw (Error) mError;
+            }
+
+            return mResult;
+        }
+    }
+
+    private static class AsyncWaiter<T> {
+        final JCacheKey cacheKey;
+        final int lane;
+        final GetCallback<T> callback;
+
+        AsyncWaiter(@NonNull JCacheKey cacheKey, int lane, @NonNull GetCallback<T> callback) {
+            this.cacheKey = cacheKey;
+            this.lane = lane;
+            this.callback = callback;
+        }
+    }
+
+    /**
+     * getAsync(cacheKey) 返回的 Future，不支持取消：同一个key的加载可能还有别人在等
+     */
+    private static class LoadFuture<T> implements Future<T>, GetCallback<T> {
+
+        private final CountDownLatch mLatch = new CountDownLatch(1);
+
+        private T mValue;
+        private Throwable mError;
+
+        @Override
+        public void onGetFinished(@NonNull JCacheKey cacheKey, @Nullable T value, @Nullable Throwable error) {
+            mValue = value;
+            mError = error;
+
+            mLatch.countDown();
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return false;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        @Override
+        public boolean isDone() {
+            return mLatch.getCount() == 0;
+        }
+
+        @Override
+        public T get() throws InterruptedException, ExecutionException {
+            mLatch.await();
+
+            return getResult();
+        }
+
+        @Override
+        public T get(long timeout, @NonNull TimeUnit unit) throws InterruptedException, ExecutionException,
+                TimeoutException {
+            if (!mLatch.await(timeout, unit)) {
+                throw new TimeoutException();
+            }
+
+            return getResult();
+        }
+
+        private T getResult() throws ExecutionException {
+            if (mError != null) {
+                throw new ExecutionException(mError);
+            }
+
+            return mValue;
+        }
     }
 
     // for count in closure
@@ -311,7 +2645,7 @@ public class JCache<T> {
     }
 
     private void trimHard() {
-        mLock.writeLock().lock();
+        mLock.lock();
 
         try {
             int maxSize = mHardCache.maxSize();
@@ -337,58 +2671,94 @@ public class JCache<T> {
 
             long start = System.currentTimeMillis();
 
-            IntCounter realTrimCount = new IntCounter();
+            int realTrimCount = demoteHard(maxTrimCount, trimThresholdSize);
 
-            int traverseTrimCount = mHardCache.traverseTrim(maxTrimCount, (key, value) -> {
-                if (!canValueBeTrimmed(key, value.value)) {
-                    return false;
-                }
+            currentSize = mHardCache.size();
+
+            if (currentSize <= trimThresholdSize) {
+                int newMaxSize = Math.max(maxHotSize, mHardInitSize);
+
+                Log.i(mTag, "trimHard resize: " + newMaxSize);
+
+                mHardCache.resize(newMaxSize, mHardCache.hotPercent());
+            }
+
+            Log.i(mTag, "trimHard realTrimCount: " + realTrimCount + ", trimThresholdSize: " +
+                    trimThresholdSize + ", curSize: " + currentSize + ", maxSize: " +
+                    mHardCache.maxSize() + ", cost: " + (System.currentTimeMillis() - start));
+        } finally {
+            mLock.unlock();
+        }
+    }
 
-                mHardCache.remove(key);
+    /**
+     * 从hard的冷端开始把可以trim的节点挪到weak里，这个函数在被调用时一定要放到 mLock 里
+     *
+     * @param targetSize hard的size降到这个值以下时就停止，-1 代表只受 maxCount 限制
+     * @return 真正挪到weak里的节点个数
+     */
+    private int demoteHard(int maxCount, int targetSize) {
+        return demoteHard(mHardCache, maxCount, targetSize);
+    }
 
-                JCacheValue<WeakReference<T>> weakValue = new JCacheValue<>(key,
-                        new WeakReference<>(value.value));
-                weakValue.lastRefreshTime = value.lastRefreshTime;
+    /**
+     * @param lruCache mHardCache 或者它的一个分区
+     */
+    private int demoteHard(@NonNull JLruCache<JCacheKey, JCacheValue<T>> lruCache, int maxCount, int targetSize) {
+        IntCounter realTrimCount = new IntCounter();
 
-                int weakSize = mWeakCache.size();
-                int weakMaxSize = mWeakCache.maxSize();
+        lruCache.traverseTrim(maxCount, targetSize, (key, value) -> {
+            if (!canValueBeTrimmed(key, value.value)) {
+                return false;
+            }
 
-                if (weakSize + 1 > weakMaxSize) {
-                    int newWeakMaxSize = (int) (weakMaxSize * DEFAULT_SIZE_INCREASE_STEP);
+            lruCache.remove(key);
 
-                    Log.i(mTag, "trimHard weak resize: " + newWeakMaxSize);
+            putToWeak(key, value);
 
-                    mWeakCache.resize(newWeakMaxSize, DEFAULT_WEAK_HOT_PERCENT);
-                }
+            realTrimCount.count++;
 
-                mWeakCache.put(key, weakValue);
+            return true;
+        });
 
-                realTrimCount.count++;
+        return realTrimCount.count;
+    }
 
-                return true;
-            });
+    /**
+     * 这个函数在被调用时一定要放到 mLock 里
+     */
+    private void putToWeak(@NonNull JCacheKey cacheKey, @NonNull JCacheValue<T> value) {
+        JCacheValue<WeakReference<T>> weakValue = new JCacheValue<>(cacheKey,
+                new WeakReference<>(value.value));
+        weakValue.lastRefreshTime = value.lastRefreshTime;
+        weakValue.expireAt = value.expireAt;
+        weakValue.loadCost = value.loadCost;
+        weakValue.refreshedTime = value.refreshedTime;
 
-            currentSize = mHardCache.size();
+        while (mWeakCache.willTrimOnPut(cacheKey, weakValue)) {
+            int newWeakMaxSize = (int) (mWeakCache.maxSize() * DEFAULT_SIZE_INCREASE_STEP);
 
-            if (currentSize <= trimThresholdSize) {
-                int newMaxSize = Math.max(maxHotSize, mHardInitSize);
+            Log.i(mTag, "putToWeak weak resize: " + newWeakMaxSize);
 
-                Log.i(mTag, "trimHard resize: " + newMaxSize);
+            mWeakCache.resize(newWeakMaxSize, DEFAULT_WEAK_HOT_PERCENT);
+        }
 
-                mHardCache.resize(newMaxSize, DEFAULT_HARD_HOT_PERCENT);
-            }
+        mWeakCache.put(cacheKey, weakValue);
 
-            Log.i(mTag, "trimHard traverseTrimCount: " + traverseTrimCount +
-                    ", realTrimCount: " + realTrimCount.count + ", trimThresholdSize: " +
-                    trimThresholdSize + ", curSize: " + currentSize + ", maxSize: " +
-                    mHardCache.maxSize() + ", cost: " + (System.currentTimeMillis() - start));
-        } finally {
-            mLock.writeLock().unlock();
+        BloomFilter bloomFilter = mWeakBloomFilter;
+
+        if (bloomFilter != null) {
+            bloomFilter.put(cacheKey);
+
+            // 不在锁里重建，交给trim的线程
+            if (bloomFilter.isSaturated() && mWeakBloomRebuildPosted.compareAndSet(false, true)) {
+                ThreadBus.post(ThreadBus.Shit, mRebuildWeakBloomTask);
+            }
         }
     }
 
     private void trimWeak() {
-        mLock.writeLock().lock();
+        mLock.lock();
 
         try {
             int maxSize = mWeakCache.maxSize();
@@ -453,7 +2823,7 @@ public class JCache<T> {
                     trimThresholdSize + ", curSize: " + currentSize + ", maxSize: " +
                     mWeakCache.maxSize() + ", cost: " + (System.currentTimeMillis() - mLastTrimWeakTime));
         } finally {
-            mLock.writeLock().unlock();
+            mLock.unlock();
         }
     }
 
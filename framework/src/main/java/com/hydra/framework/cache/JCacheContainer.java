@@ -4,14 +4,23 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 import com.hydra.framework.cache.JCache.CacheController;
+import com.hydra.framework.cache.JCache.Tagger;
+import com.hydra.framework.cache.lru.EvictionPolicy;
+import com.hydra.framework.cache.lru.Weigher;
+import com.hydra.framework.thread.ThreadBus;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * 描述一下内存缓存的设计结构和思想：
- * 1、HotEndLruCache：改进的LRU算法，双向循环链表+热冷双指针，配合读写锁，性能比普通的LRUCache好很多，特别是在读的时候，纯读锁可以支持很高的并发
+ * 1、HotEndLruCache：改进的LRU算法，双向循环链表+热冷双指针，读是不加锁的，写操作独占一把锁，性能比普通的LRUCache好很多，特别是在读的时候可以支持很高的并发
  * 2、在HotEndLruCache的基础上，我们做了两层缓存： hardCache size比较小，操作速度快；weakCache size比较大，负责垃圾回收
  * 3、两层缓存的都是可以无限expand，保证一定可以存进去，这时HotEndLruCache自带的trim就失效了
+ * 如果设置了 maxHardSize，hard到了上限后put会先把冷端可以trim的节点挪到weak里；配合 weigher 可以按字节数来限制hard的内存
  * 4、所以我们在JCache里，做了定时的扫描清理策略，通过当前的size、配合一个低优先级的线程进行定时清理，测过10000量级的清理耗时，最大时耗时在30ms左右
  * 5、如何平衡 内存使用 和 垃圾回收导致的不可控因素，加入了canValueBeTrimmed接口，这个接口有三种逻辑：
  * 1) 当你觉得自己的缓存很重要，从服务器拉到数据后，放到缓存里要保证一定能拿到而不被回收，那你可以无脑返回 false，即不能被trim，这样你的缓存会
@@ -33,6 +42,8 @@ public class JCacheContainer {
 
         private static final long DEFAULT_EXPIRE_TIME = 5 * 60 * 1000L; //默认是五分钟过期
         private static final int DEFAULT_HARD_MIN_SIZE = 64;
+        private static final int DEFAULT_REFRESH_BATCH_SIZE = 32;
+        private static final int DEFAULT_NEGATIVE_CACHE_MAX_SIZE = 1024;
 
         public Class<T> cacheClazz;
 
@@ -40,8 +51,82 @@ public class JCacheContainer {
 
         public long expireTime = DEFAULT_EXPIRE_TIME;
 
+        // 有weigher时，minHardSize 和 maxHardSize 都是weight的单位
         public int minHardSize = DEFAULT_HARD_MIN_SIZE;
 
+        // hard扩容的上限，到了上限之后put时会先把冷端的节点挪到weak里
+        public int maxHardSize = Integer.MAX_VALUE;
+
+        // 为null时hard里每个节点的size是1
+        public Weigher<T> weigher;
+
+        // 1 是不分段；> 1 时hard和weak都按key的hash分段，各自一把锁；<= 0 时按cpu个数分段
+        // JCache 的写操作还是在同一把 mLock 里，分段减少的是读命中和后台trim之间的竞争
+        public int segmentCount = 1;
+
+        // 为true时key只能有一个分量而且是一个long(字符串形式也可以，见 JCacheKey.isLongKey)，底层按long索引，不分段；
+        // get(long) 命中时没有装箱和字符串拼接
+        public boolean longKey = false;
+
+        // hard到了 maxHardSize 之后，新的key要比hard冷端会被挤掉的节点访问得更频繁才会放到hard里，否则只放到weak里
+        // 要和 maxHardSize 一起设置：没有上限时hard满了就扩容，永远不会走到准入判断
+        public boolean admissionFilter = false;
+
+        // hard的淘汰策略，只有 HOT_END 支持 longKey、admissionFilter 和 adaptiveHotPercent
+        public EvictionPolicy evictionPolicy = EvictionPolicy.HOT_END;
+
+        // 为true时hard的热端大小按淘汰的key有没有再回来自动调整，不再固定是0.75
+        public boolean adaptiveHotPercent = false;
+
+        // getAsync 没命中时在哪个 ThreadBus 线程上调用 createNewCacheObject，getAll 并发加载也用它
+        public int loadingLane = ThreadBus.Mid_Pool;
+
+        // 为null时节点不会过期；和 expireTime 不一样，Expiry 到了节点会被删掉，见 Expiry
+        public Expiry<T> expiry;
+
+        // Expiry 和 maxStaleness 用的时钟，测试时可以换掉
+        public Ticker ticker = Ticker.SYSTEM;
+
+        // 过期节点的刷新在哪个线程上跑，每批最多多少个key，同时最多几个线程在刷新
+        public int refreshLane = ThreadBus.Mid_Pool;
+        public int refreshBatchSize = DEFAULT_REFRESH_BATCH_SIZE;
+        public int refreshConcurrency = 1;
+
+        // 每秒最多刷新多少个key，<= 0 时不限速
+        public int maxRefreshPerSecond = 0;
+
+        // -1 时不限制；值超过这么久没有刷新过就不再返回，get 时同步重新加载，要 >= expireTime
+        // expireTime 是软的过期时间，到了还是返回旧值，在后台刷新
+        public long maxStaleness = -1L;
+
+        // 为true时给weak加一个布隆过滤器，peek 没命中hard的key大部分不用再查weak
+        public boolean weakBloomFilter = false;
+
+        // -1 时不记；createNewCacheObject 返回null的key在这段时间里再查时直接返回null，不加锁也不再调 controller
+        public long negativeCacheTime = -1L;
+
+        // 最多记多少个返回null的key
+        public int negativeCacheMaxSize = DEFAULT_NEGATIVE_CACHE_MAX_SIZE;
+
+        // [0, 1)，每个key的刷新间隔和 Expiry 的过期时长在 ±refreshJitter 的比例内浮动，避免一起加载的节点一起过期
+        public float refreshJitter = 0.0F;
+
+        // > 0 时按加载耗时提前刷新快要过期的节点(XFetch)，越大越早，1 是常用的值；0 时不提前刷新
+        public float earlyRefreshBeta = 0.0F;
+
+        // 给key的这几个分量建索引，invalidateByComponent 只能用这里声明过的分量
+        public int[] indexedComponents;
+
+        // 按值给节点打tag，不为null时可以 invalidateByTag
+        public Tagger<T> tagger;
+
+        // -1 时不分区；>= 0 时hard和weak按key的这个分量(比如uid)分区，可以 invalidatePartition，不支持 longKey
+        public int partitionComponent = -1;
+
+        // 每个分区在hard里最多占多少(和 maxHardSize 同一个单位)，满了只会挤掉自己分区的节点
+        // 分区之间的隔离只有这么强：不设时一个分区可以占满整个hard，挤掉所有别的分区的节点，一般设成 maxHardSize 的几分之一
+        public int partitionMaxHardSize = Integer.MAX_VALUE;
+
         public JCacheBuilder<T> cacheController(@NonNull CacheController<T> cacheController) {
             this.cacheController = cacheController;
 
@@ -65,10 +150,157 @@ public class JCacheContainer {
 
             return this;
         }
+
+        public JCacheBuilder<T> maxHardSize(int maxHardSize) {
+            this.maxHardSize = maxHardSize;
+
+            return this;
+        }
+
+        public JCacheBuilder<T> weigher(@NonNull Weigher<T> weigher) {
+            this.weigher = weigher;
+
+            return this;
+        }
+
+        public JCacheBuilder<T> segmentCount(int segmentCount) {
+            this.segmentCount = segmentCount;
+
+            return this;
+        }
+
+        public JCacheBuilder<T> longKey() {
+            this.longKey = true;
+
+            return this;
+        }
+
+        public JCacheBuilder<T> admissionFilter() {
+            this.admissionFilter = true;
+
+            return this;
+        }
+
+        public JCacheBuilder<T> evictionPolicy(@NonNull EvictionPolicy evictionPolicy) {
+            this.evictionPolicy = evictionPolicy;
+
+            return this;
+        }
+
+        public JCacheBuilder<T> adaptiveHotPercent() {
+            this.adaptiveHotPercent = true;
+
+            return this;
+        }
+
+        public JCacheBuilder<T> loadingLane(int loadingLane) {
+            this.loadingLane = loadingLane;
+
+            return this;
+        }
+
+        public JCacheBuilder<T> maxStaleness(long maxStaleness) {
+            this.maxStaleness = maxStaleness;
+
+            return this;
+        }
+
+        public JCacheBuilder<T> weakBloomFilter() {
+            this.weakBloomFilter = true;
+
+            return this;
+        }
+
+        public JCacheBuilder<T> negativeCacheTime(long negativeCacheTime) {
+            this.negativeCacheTime = negativeCacheTime;
+
+            return this;
+        }
+
+        public JCacheBuilder<T> negativeCacheMaxSize(int negativeCacheMaxSize) {
+            this.negativeCacheMaxSize = negativeCacheMaxSize;
+
+            return this;
+        }
+
+        public JCacheBuilder<T> refreshJitter(float refreshJitter) {
+            this.refreshJitter = refreshJitter;
+
+            return this;
+        }
+
+        public JCacheBuilder<T> earlyRefreshBeta(float earlyRefreshBeta) {
+            this.earlyRefreshBeta = earlyRefreshBeta;
+
+            return this;
+        }
+
+        public JCacheBuilder<T> expiry(@NonNull Expiry<T> expiry) {
+            this.expiry = expiry;
+
+            return this;
+        }
+
+        public JCacheBuilder<T> ticker(@NonNull Ticker ticker) {
+            this.ticker = ticker;
+
+            return this;
+        }
+
+        public JCacheBuilder<T> refreshLane(int refreshLane) {
+            this.refreshLane = refreshLane;
+
+            return this;
+        }
+
+        public JCacheBuilder<T> refreshBatchSize(int refreshBatchSize) {
+            this.refreshBatchSize = refreshBatchSize;
+
+            return this;
+        }
+
+        public JCacheBuilder<T> refreshConcurrency(int refreshConcurrency) {
+            this.refreshConcurrency = refreshConcurrency;
+
+            return this;
+        }
+
+        public JCacheBuilder<T> maxRefreshPerSecond(int maxRefreshPerSecond) {
+            this.maxRefreshPerSecond = maxRefreshPerSecond;
+
+            return this;
+        }
+
+        public JCacheBuilder<T> indexedComponents(@NonNull int... indexedComponents) {
+            this.indexedComponents = indexedComponents;
+
+            return this;
+        }
+
+        public JCacheBuilder<T> tagger(@NonNull Tagger<T> tagger) {
+            this.tagger = tagger;
+
+            return this;
+        }
+
+        public JCacheBuilder<T> partitionComponent(int partitionComponent) {
+            this.partitionComponent = partitionComponent;
+
+            return this;
+        }
+
+        public JCacheBuilder<T> partitionMaxHardSize(int partitionMaxHardSize) {
+            this.partitionMaxHardSize = partitionMaxHardSize;
+
+            return this;
+        }
     }
 
     private static final ConcurrentHashMap<Class<?>, JCache<?>> ALL_CACHES = new ConcurrentHashMap<>();
 
+    // 所有cache共用的依赖图，见 CacheController.dependenciesOf
+    static final DependencyGraph DEPENDENCY_GRAPH = new DependencyGraph();
+
     /**
      * 这里之前的几个接口，把 get 和 build 放在了一起，现在把build和get分开
      * 对于build来说，如果需要再次build，要先remove才可以
@@ -106,6 +338,25 @@ public class JCacheContainer {
         return constCache;
     }
 
+    /**
+     * cacheClazz 里的 cacheKeys 被改过或者删掉了，把所有直接和间接依赖它们的节点找出来，每个cache整批删一次
+     * 不能在任何 JCache 的锁里调用
+     */
+    static void cascadeInvalidate(@NonNull Class<?> cacheClazz, @NonNull Collection<JCacheKey> cacheKeys) {
+        HashMap<Class<?>, ArrayList<JCacheKey>> dependents = DEPENDENCY_GRAPH.collectDependents(cacheClazz, cacheKeys);
+
+        for (Map.Entry<Class<?>, ArrayList<JCacheKey>> entry : dependents.entrySet()) {
+            JCache<?> cache = ALL_CACHES.get(entry.getKey());
+
+            if (cache != null) {
+                cache.invalidateDependents(entry.getValue());
+            } else {
+                // 依赖的cache已经被 removeCache 了
+                DEPENDENCY_GRAPH.removeAllDependencies(entry.getKey());
+            }
+        }
+    }
+
     public static <T> void removeCache(@NonNull Class<T> cacheClazz) {
         JCache<T> cache = (JCache<T>) ALL_CACHES.remove(cacheClazz);
 
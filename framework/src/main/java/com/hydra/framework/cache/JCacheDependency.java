@@ -0,0 +1,53 @@
+package com.hydra.framework.cache;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Created by Hydra.
+ * <p>
+ * 一个 JCache 里的一个key，CacheController.dependenciesOf 用它说明一个节点是从哪些节点算出来的
+ * cache 用 JCacheContainer 里注册的class来区分
+ */
+public final class JCacheDependency {
+
+    @NonNull
+    public final Class<?> cacheClazz;
+
+    @NonNull
+    public final JCacheKey cacheKey;
+
+    private JCacheDependency(@NonNull Class<?> cacheClazz, @NonNull JCacheKey cacheKey) {
+        this.cacheClazz = cacheClazz;
+        this.cacheKey = cacheKey;
+    }
+
+    public static JCacheDependency of(@NonNull Class<?> cacheClazz, @NonNull JCacheKey cacheKey) {
+        return new JCacheDependency(cacheClazz, cacheKey);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+
+        if (!(o instanceof JCacheDependency)) {
+            return false;
+        }
+
+        JCacheDependency another = (JCacheDependency) o;
+
+        return cacheClazz == another.cacheClazz && cacheKey.equals(another.cacheKey);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * cacheClazz.hashCode() + cacheKey.hashCode();
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return cacheClazz.getSimpleName() + "[" + cacheKey + "]";
+    }
+}
@@ -3,6 +3,7 @@ package com.hydra.framework.cache;
 import android.text.TextUtils;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 /**
  * Created by Hydra.
@@ -14,44 +15,213 @@ public class JCacheKey {
         return new JCacheKey(ids);
     }
 
-    @NonNull
+    /**
+     * 只有一个long的key，不装箱也不拼字符串，和 buildCacheKey(id) 是equals的
+     * 配合 JCacheBuilder.longKey() 使用
+     */
+    public static JCacheKey buildLongCacheKey(long id) {
+        return new JCacheKey(id);
+    }
+
+    // 为null时是 buildLongCacheKey 创建的key
+    @Nullable
     private final Object[] mKeys;
 
-    @NonNull
+    private final long mLongKey;
+
+    // buildLongCacheKey 创建的key是null
+    @Nullable
     private final String mKeyStr;
 
+    // long key 的字符串和hash是用到的时候才算的，没有 volatile：
+    // 别的线程可能看不到已经算好的值，最多再算一遍，结果都一样；String 是不可变的，看到了就是完整的
+    private String mLongKeyStr;
+
+    private int mHash;
+
     private JCacheKey(@NonNull Object... keys) {
         mKeys = keys;
+        mLongKey = 0L;
 
         mKeyStr = TextUtils.join(",", keys);
     }
 
+    private JCacheKey(long key) {
+        mKeys = null;
+        mLongKey = key;
+
+        mKeyStr = null;
+    }
+
     /**
      * 自行判断index范围
      */
     public <T> T keyAt(int index) {
+        if (mKeys == null) {
+            if (index != 0) {
+                throw new ArrayIndexOutOfBoundsException(index);
+            }
+
+            return (T) Long.valueOf(mLongKey);
+        }
+
         return (T) mKeys[index];
     }
 
+    public int keyCount() {
+        return mKeys == null ? 1 : mKeys.length;
+    }
+
+    /**
+     * buildLongCacheKey 创建的，或者只有一个分量、字符串是一个long的key，才可以用在按long索引的cache里
+     * 和 equals 一样按字符串判断，所以 buildCacheKey("5") 和 buildLongCacheKey(5) 都是long key，而且是equals的
+     */
+    public boolean isLongKey() {
+        if (mKeys == null) {
+            return true;
+        }
+
+        if (mKeys.length != 1) {
+            return false;
+        }
+
+        return isIntegral(mKeys[0]) || isLongString(mKeyStr);
+    }
+
+    /**
+     * 调用前先用 isLongKey 判断
+     */
+    public long longKey() {
+        if (mKeys == null) {
+            return mLongKey;
+        }
+
+        Object key = mKeys[0];
+
+        return isIntegral(key) ? ((Number) key).longValue() : Long.parseLong(mKeyStr);
+    }
+
+    private static boolean isIntegral(@Nullable Object key) {
+        return key instanceof Long || key instanceof Integer || key instanceof Short || key instanceof Byte;
+    }
+
+    /**
+     * 是不是 Long.toString 能生成的字符串：没有 '+'、没有多余的0、不是 "-0"，也不超出long的范围
+     */
+    private static boolean isLongString(@Nullable String str) {
+        if (str == null) {
+            return false;
+        }
+
+        int length = str.length();
+
+        int start = length > 0 && str.charAt(0) == '-' ? 1 : 0;
+
+        // long 最多19位数字
+        if (length == start || length - start > 19) {
+            return false;
+        }
+
+        if (str.charAt(start) == '0' && (length - start > 1 || start == 1)) {
+            return false;
+        }
+
+        for (int i = start; i < length; ++i) {
+            char c = str.charAt(i);
+
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+
+        if (length - start < 19) {
+            return true;
+        }
+
+        try {
+            Long.parseLong(str);
+
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
     @Override
     public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+
         if (!(o instanceof JCacheKey)) {
             return false;
         }
 
         JCacheKey another = (JCacheKey) o;
 
-        return mKeyStr.equals(another.mKeyStr);
+        if (mKeys == null && another.mKeys == null) {
+            return mLongKey == another.mLongKey;
+        }
+
+        return toString().equals(another.toString());
     }
 
     @NonNull
     @Override
     public String toString() {
-        return mKeyStr;
+        if (mKeyStr != null) {
+            return mKeyStr;
+        }
+
+        String keyStr = mLongKeyStr;
+
+        if (keyStr == null) {
+            mLongKeyStr = keyStr = Long.toString(mLongKey);
+        }
+
+        return keyStr;
     }
 
     @Override
     public int hashCode() {
-        return mKeyStr.hashCode();
+        if (mKeyStr != null) {
+            return mKeyStr.hashCode();
+        }
+
+        int hash = mHash;
+
+        if (hash == 0) {
+            mHash = hash = longStringHash(mLongKey);
+        }
+
+        return hash;
+    }
+
+    /**
+     * 和 Long.toString(value).hashCode() 的结果一样，但是不用创建字符串
+     */
+    private static int longStringHash(long value) {
+        if (value == Long.MIN_VALUE) {
+            return Long.toString(value).hashCode();
+        }
+
+        int hash = 0;
+
+        if (value < 0) {
+            hash = '-';
+            value = -value;
+        }
+
+        long divisor = 1;
+
+        while (divisor <= value / 10) {
+            divisor *= 10;
+        }
+
+        for (; divisor > 0; divisor /= 10) {
+            hash = 31 * hash + (char) ('0' + (value / divisor) % 10);
+        }
+
+        return hash;
     }
 }
@@ -2,6 +2,8 @@ package com.hydra.framework.cache;
 
 import androidx.annotation.NonNull;
 
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
 /**
  * Created by Hydra.
  *
@@ -17,11 +19,31 @@ public class JCacheValue<T> {
 
     public volatile long lastRefreshTime = System.currentTimeMillis();
 
+    // Ticker 的纳秒，Expiry.NEVER 时不过期，命中时可能在锁外面被续期
+    volatile long expireAt = Expiry.NEVER;
+
+    // 这个值被加载或者放进cache(put、compute、刷新结果)的时间，Ticker 的纳秒，只在打开了 maxStaleness 时才记
+    // 和 lastRefreshTime 不一样，lastRefreshTime 是最后一次触发刷新的时间，触发了不代表值变了
+    volatile long refreshedTime = 0L;
+
+    // 加载这个值花了多少纳秒，0 代表不知道(比如 putIfAbsent 放进来的)，提前刷新时用
+    long loadCost = 0L;
+
+    private static final AtomicLongFieldUpdater<JCacheValue> LAST_REFRESH_TIME_UPDATER =
+            AtomicLongFieldUpdater.newUpdater(JCacheValue.class, "lastRefreshTime");
+
     public JCacheValue(@NonNull JCacheKey cacheKey, @NonNull T value) {
         this.cacheKey = cacheKey;
         this.value = value;
     }
 
+    /**
+     * 过期时只有一个线程能抢到这次刷新，其他同时命中的线程不会重复触发
+     */
+    boolean tryMarkRefresh(long expectLastRefreshTime, long current) {
+        return LAST_REFRESH_TIME_UPDATER.compareAndSet(this, expectLastRefreshTime, current);
+    }
+
     @Override
     public boolean equals(Object o) {
         if (!(o instanceof JCacheValue)) {
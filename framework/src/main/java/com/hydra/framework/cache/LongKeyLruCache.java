@@ -0,0 +1,174 @@
+package com.hydra.framework.cache;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.hydra.framework.cache.lru.JLruCache;
+import com.hydra.framework.cache.lru.LongHotEndLruCache;
+import com.hydra.framework.cache.lru.Weigher;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Created by Hydra.
+ * <p>
+ * JCacheBuilder.longKey() 时JCache用的LRU，底层是按long索引的 LongHotEndLruCache
+ * JCacheKey 只在这里转成long，traverse 时的key直接用节点里存的 cacheKey，不会再创建
+ */
+class LongKeyLruCache<V extends JCacheValue<?>> implements JLruCache<JCacheKey, V> {
+
+    private final LongHotEndLruCache<V> mLruCache;
+
+    LongKeyLruCache(int maxSize, float hotPercent, @Nullable Weigher<V> weigher) {
+        mLruCache = new LongHotEndLruCache<>(maxSize, hotPercent, weigher);
+    }
+
+    private static long longKeyOf(@NonNull JCacheKey key) {
+        if (!key.isLongKey()) {
+            throw new IllegalArgumentException("long key cache only accept long key, but key is " + key);
+        }
+
+        return key.longKey();
+    }
+
+    @Nullable
+    V get(long key) {
+        return mLruCache.get(key);
+    }
+
+    @Override
+    public void resize(int maxSize, float hotPercent) {
+        mLruCache.resize(maxSize, hotPercent);
+    }
+
+    @Nullable
+    @Override
+    public V get(@NonNull JCacheKey key) {
+        return mLruCache.get(longKeyOf(key));
+    }
+
+    @Override
+    public boolean put(@NonNull JCacheKey key, @NonNull V value) {
+        return mLruCache.put(longKeyOf(key), value);
+    }
+
+    @Nullable
+    @Override
+    public V remove(@NonNull JCacheKey key) {
+        return mLruCache.remove(longKeyOf(key));
+    }
+
+    @Override
+    public void getAll(@NonNull Iterable<JCacheKey> keys, @NonNull Map<JCacheKey, V> result) {
+        for (JCacheKey key : keys) {
+            V value = mLruCache.get(longKeyOf(key));
+
+            if (value != null) {
+                result.put(key, value);
+            }
+        }
+    }
+
+    @Override
+    public void putAll(@NonNull Map<JCacheKey, V> entries) {
+        HashMap<Long, V> longEntries = new HashMap<>(entries.size() * 2);
+
+        for (Map.Entry<JCacheKey, V> entry : entries.entrySet()) {
+            longEntries.put(longKeyOf(entry.getKey()), entry.getValue());
+        }
+
+        mLruCache.putAll(longEntries);
+    }
+
+    @Override
+    public int removeAll(@NonNull Collection<JCacheKey> keys) {
+        ArrayList<Long> longKeys = new ArrayList<>(keys.size());
+
+        for (JCacheKey key : keys) {
+            longKeys.add(longKeyOf(key));
+        }
+
+        return mLruCache.removeAll(longKeys);
+    }
+
+    @Override
+    public boolean willTrimOnPut(@NonNull JCacheKey key, @NonNull V value) {
+        return mLruCache.willTrimOnPut(longKeyOf(key), value);
+    }
+
+    @Override
+    public boolean admit(@NonNull JCacheKey key, @NonNull V value) {
+        return mLruCache.admit(longKeyOf(key), value);
+    }
+
+    void enableAdmissionFilter() {
+        mLruCache.enableAdmissionFilter();
+    }
+
+    void enableAdaptiveHotPercent() {
+        mLruCache.enableAdaptiveHotPercent();
+    }
+
+    @Override
+    public boolean trimTo(int targetSize) {
+        return mLruCache.trimTo(targetSize);
+    }
+
+    @Override
+    public int traverseTrim(int maxCount, @NonNull TraverseCallback<JCacheKey, V> callback) {
+        return traverseTrim(maxCount, -1, callback);
+    }
+
+    @Override
+    public int traverseTrim(int maxCount, int targetSize, @NonNull TraverseCallback<JCacheKey, V> callback) {
+        return mLruCache.traverseTrim(maxCount, targetSize,
+                (key, value) -> callback.onTraverse(value.cacheKey, value));
+    }
+
+    @Override
+    public boolean forEach(@NonNull TraverseCallback<JCacheKey, V> callback) {
+        return mLruCache.forEach((key, value) -> callback.onTraverse(value.cacheKey, value));
+    }
+
+    @NonNull
+    @Override
+    public Cursor<JCacheKey, V> cursor() {
+        Cursor<Long, V> cursor = mLruCache.cursor();
+
+        return (maxCount, callback) -> cursor.next(maxCount, (key, value) -> callback.onTraverse(value.cacheKey, value));
+    }
+
+    @Override
+    public void clear() {
+        mLruCache.clear();
+    }
+
+    @Override
+    public int size() {
+        return mLruCache.size();
+    }
+
+    @Override
+    public int maxSize() {
+        return mLruCache.maxSize();
+    }
+
+    @Override
+    public int maxHotSize() {
+        return mLruCache.maxHotSize();
+    }
+
+    @Override
+    public float hotPercent() {
+        return mLruCache.hotPercent();
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return mLruCache.toString();
+    }
+}
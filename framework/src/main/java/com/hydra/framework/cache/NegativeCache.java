@@ -0,0 +1,117 @@
+package com.hydra.framework.cache;
+
+import androidx.annotation.NonNull;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Created by Hydra.
+ * <p>
+ * 记住 createNewCacheObject 返回null的key，在有效期内再查这些key时直接返回null，不加 JCache 的锁也不调 controller
+ * 1、只存key，两代 set 轮换：每过 ttl / 2 或者当前这一代满了，就把上一代整个丢掉，当前这一代变成上一代
+ * 2、所以一个key最少能留 ttl / 2，最多 ttl，不需要给每个key记时间，也不需要扫描
+ * 3、查询不加锁，轮换时才加锁
+ */
+final class NegativeCache {
+
+    private final long mTtl;
+
+    // 每一代最多多少个key，两代加起来不超过 maxSize
+    private final int mGenerationSize;
+
+    private volatile Set<JCacheKey> mCurrent = newGeneration();
+    private volatile Set<JCacheKey> mPrevious = newGeneration();
+
+    private volatile long mRotateTime = System.currentTimeMillis();
+
+    NegativeCache(long ttl, int maxSize) {
+        if (ttl <= 0L || maxSize < 2) {
+            throw new RuntimeException("NegativeCache ttl must > 0 and maxSize must >= 2");
+        }
+
+        mTtl = ttl;
+        mGenerationSize = maxSize / 2;
+    }
+
+    @NonNull
+    private static Set<JCacheKey> newGeneration() {
+        return Collections.newSetFromMap(new ConcurrentHashMap<JCacheKey, Boolean>());
+    }
+
+    boolean contains(@NonNull JCacheKey cacheKey) {
+        rotateIfNeeded();
+
+        return mCurrent.contains(cacheKey) || mPrevious.contains(cacheKey);
+    }
+
+    void add(@NonNull JCacheKey cacheKey) {
+        rotateIfNeeded();
+
+        Set<JCacheKey> current = mCurrent;
+
+        current.add(cacheKey);
+
+        if (current.size() >= mGenerationSize) {
+            rotate(current);
+        }
+    }
+
+    /**
+     * key有值了或者被 invalidate 了，两代里都要删掉
+     */
+    void remove(@NonNull JCacheKey cacheKey) {
+        mCurrent.remove(cacheKey);
+        mPrevious.remove(cacheKey);
+    }
+
+    void clear() {
+        synchronized (this) {
+            mPrevious = newGeneration();
+            mCurrent = newGeneration();
+
+            mRotateTime = System.currentTimeMillis();
+        }
+    }
+
+    private void rotateIfNeeded() {
+        if (System.currentTimeMillis() - mRotateTime < mTtl / 2) {
+            return;
+        }
+
+        synchronized (this) {
+            long current = System.currentTimeMillis();
+
+            long elapsed = current - mRotateTime;
+
+            // 别的线程已经轮换过了
+            if (elapsed < mTtl / 2) {
+                return;
+            }
+
+            // 很久没有访问时两代都已经过期了
+            mPrevious = elapsed >= mTtl ? newGeneration() : mCurrent;
+            mCurrent = newGeneration();
+
+            mRotateTime = current;
+        }
+    }
+
+    /**
+     * @param expectCurrent 已经被别的线程轮换过了就不再轮换
+     */
+    private void rotate(@NonNull Set<JCacheKey> expectCurrent) {
+        synchronized (this) {
+            if (mCurrent != expectCurrent) {
+                return;
+            }
+
+            // 先换 previous 再换 current，并发的 contains 最多多看到一代，不会漏掉当前这一代
+            mPrevious = expectCurrent;
+            mCurrent = newGeneration();
+
+            mRotateTime = System.currentTimeMillis();
+        }
+    }
+}
@@ -0,0 +1,468 @@
+package com.hydra.framework.cache;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.hydra.framework.cache.lru.JLruCache;
+import com.hydra.framework.cache.lru.Weigher;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Created by Hydra.
+ * <p>
+ * JCacheBuilder.partitionComponent 时JCache用的LRU，按key的某一个分量(比如uid)分区，每个分区是一个独立的LRU，有自己的锁和热冷环：
+ * 1、每个分区的上限是 min(partitionMaxSize, maxSize)，一个分区满了只会挤掉自己的节点，不会把别的分区的节点挤出去；
+ * 隔离只有 partitionMaxSize 这么强，它是 Integer.MAX_VALUE 时一个分区可以涨到 maxSize，把别的分区都挤掉
+ * 2、所有分区加起来不超过 resize 给的 maxSize，超了由 JCache 和不分区时一样处理
+ * 3、dropPartition 直接把整个分区拿掉，O(1)，旧的节点整体交给GC
+ * 4、分区在第一次有key放进来时才创建；分量按 String.valueOf 区分，和 JCacheKey 的 equals 一样，没有这个分量的key都在一个默认分区里
+ * <p>
+ * get 不加锁，也不会创建分区
+ */
+final class PartitionedLruCache<V> implements JLruCache<JCacheKey, V> {
+
+    interface PartitionFactory<V> {
+        @NonNull
+        JLruCache<JCacheKey, V> create(int maxSize, float hotPercent);
+    }
+
+    // key 没有 mComponent 这个分量时放到这个分区
+    private static final String DEFAULT_PARTITION = "";
+
+    // 每个分区最少要有 HotEndLruCache 允许的最小size
+    private static final int MIN_PARTITION_SIZE = 2;
+
+    private final int mComponent;
+
+    private final int mPartitionMaxSize;
+
+    @Nullable
+    private final Weigher<V> mWeigher;
+
+    private final PartitionFactory<V> mFactory;
+
+    private final ConcurrentHashMap<String, JLruCache<JCacheKey, V>> mPartitions = new ConcurrentHashMap<>();
+
+    private volatile int mMaxSize;
+
+    private volatile float mHotPercent;
+
+    // traverseTrim 时从哪个分区开始，轮着来，避免总是trim前面几个分区
+    private int mNextTrimPartition = 0;
+
+    /**
+     * @param partitionMaxSize 每个分区的上限，Integer.MAX_VALUE 时只受 maxSize 限制
+     * @param weigher          和分区用的是同一个，用来判断总的size会不会超
+     */
+    PartitionedLruCache(int maxSize, float hotPercent, int component, int partitionMaxSize,
+                        @Nullable Weigher<V> weigher, @NonNull PartitionFactory<V> factory) {
+        if (component < 0 || partitionMaxSize < MIN_PARTITION_SIZE) {
+            throw new RuntimeException("PartitionedLruCache component must >= 0 and partitionMaxSize must >= " +
+                    MIN_PARTITION_SIZE);
+        }
+
+        mComponent = component;
+        mPartitionMaxSize = partitionMaxSize;
+        mWeigher = weigher;
+        mFactory = factory;
+
+        mMaxSize = maxSize;
+        mHotPercent = hotPercent;
+    }
+
+    @NonNull
+    private String partitionOf(@NonNull JCacheKey key) {
+        if (mComponent >= key.keyCount()) {
+            return DEFAULT_PARTITION;
+        }
+
+        // 和 SecondaryIndex 一样，先放到Object里，不然 valueOf 会被推断成 valueOf(char[])
+        Object component = key.keyAt(mComponent);
+
+        return String.valueOf(component);
+    }
+
+    private int quotaOf(int maxSize) {
+        return Math.max(MIN_PARTITION_SIZE, Math.min(mPartitionMaxSize, maxSize));
+    }
+
+    /**
+     * @return 构造时给的每个分区的上限，分区的 maxSize 在总的 maxSize 比它小时会跟着总的走
+     */
+    int partitionQuota() {
+        return mPartitionMaxSize;
+    }
+
+    @Nullable
+    private JLruCache<JCacheKey, V> findPartition(@NonNull JCacheKey key) {
+        return mPartitions.get(partitionOf(key));
+    }
+
+    /**
+     * 没有时创建一个空的分区
+     */
+    @NonNull
+    JLruCache<JCacheKey, V> partitionFor(@NonNull JCacheKey key) {
+        String partitionKey = partitionOf(key);
+
+        JLruCache<JCacheKey, V> partition = mPartitions.get(partitionKey);
+
+        if (partition != null) {
+            return partition;
+        }
+
+        synchronized (mPartitions) {
+            partition = mPartitions.get(partitionKey);
+
+            if (partition == null) {
+                partition = mFactory.create(quotaOf(mMaxSize), mHotPercent);
+
+                mPartitions.put(partitionKey, partition);
+            }
+        }
+
+        return partition;
+    }
+
+    /**
+     * 把整个分区拿掉，不会一个个去删
+     *
+     * @return 拿掉的分区里有多少size
+     */
+    int dropPartition(@NonNull Object partition) {
+        JLruCache<JCacheKey, V> removed = mPartitions.remove(String.valueOf(partition));
+
+        return removed == null ? 0 : removed.size();
+    }
+
+    boolean isInPartition(@NonNull JCacheKey key, @NonNull Object partition) {
+        return partitionOf(key).equals(String.valueOf(partition));
+    }
+
+    int partitionCount() {
+        return mPartitions.size();
+    }
+
+    private int sizeOf(@NonNull V value) {
+        return mWeigher == null ? 1 : Math.max(1, mWeigher.weigh(value));
+    }
+
+    /**
+     * 分区的上限跟着变，但不会小于分区里现在的size：canValueBeTrimmed 为false的节点让分区超过了上限时不能被挤掉
+     */
+    @Override
+    public void resize(int maxSize, float hotPercent) {
+        int quota = quotaOf(maxSize);
+
+        for (JLruCache<JCacheKey, V> partition : mPartitions.values()) {
+            partition.resize(Math.max(quota, partition.size()), hotPercent);
+        }
+
+        mMaxSize = maxSize;
+        mHotPercent = hotPercent;
+    }
+
+    @Nullable
+    @Override
+    public V get(@NonNull JCacheKey key) {
+        JLruCache<JCacheKey, V> partition = findPartition(key);
+
+        return partition == null ? null : partition.get(key);
+    }
+
+    @Override
+    public boolean put(@NonNull JCacheKey key, @NonNull V value) {
+        return partitionFor(key).put(key, value);
+    }
+
+    @Nullable
+    @Override
+    public V remove(@NonNull JCacheKey key) {
+        JLruCache<JCacheKey, V> partition = findPartition(key);
+
+        return partition == null ? null : partition.remove(key);
+    }
+
+    @Override
+    public void getAll(@NonNull Iterable<JCacheKey> keys, @NonNull Map<JCacheKey, V> result) {
+        for (JCacheKey key : keys) {
+            V value = get(key);
+
+            if (value != null) {
+                result.put(key, value);
+            }
+        }
+    }
+
+    /**
+     * 先按分区分组，每个分区只加一次锁
+     */
+    @Override
+    public void putAll(@NonNull Map<JCacheKey, V> entries) {
+        HashMap<String, HashMap<JCacheKey, V>> groups = new HashMap<>();
+
+        for (Map.Entry<JCacheKey, V> entry : entries.entrySet()) {
+            String partitionKey = partitionOf(entry.getKey());
+
+            HashMap<JCacheKey, V> group = groups.get(partitionKey);
+
+            if (group == null) {
+                group = new HashMap<>();
+
+                groups.put(partitionKey, group);
+            }
+
+            group.put(entry.getKey(), entry.getValue());
+        }
+
+        for (HashMap<JCacheKey, V> group : groups.values()) {
+            partitionFor(group.keySet().iterator().next()).putAll(group);
+        }
+    }
+
+    @Override
+    public int removeAll(@NonNull Collection<JCacheKey> keys) {
+        HashMap<String, ArrayList<JCacheKey>> groups = new HashMap<>();
+
+        for (JCacheKey key : keys) {
+            String partitionKey = partitionOf(key);
+
+            ArrayList<JCacheKey> group = groups.get(partitionKey);
+
+            if (group == null) {
+                group = new ArrayList<>();
+
+                groups.put(partitionKey, group);
+            }
+
+            group.add(key);
+        }
+
+        int count = 0;
+
+        for (Map.Entry<String, ArrayList<JCacheKey>> entry : groups.entrySet()) {
+            JLruCache<JCacheKey, V> partition = mPartitions.get(entry.getKey());
+
+            if (partition != null) {
+                count += partition.removeAll(entry.getValue());
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * 总的size超了，或者key所在的分区到了自己的上限
+     */
+    @Override
+    public boolean willTrimOnPut(@NonNull JCacheKey key, @NonNull V value) {
+        JLruCache<JCacheKey, V> partition = findPartition(key);
+
+        if (partition != null && partition.willTrimOnPut(key, value)) {
+            return true;
+        }
+
+        // 替换同一个key时不会变大太多，和 HotEndLruCache 一样按新增算，只会早一点扩容
+        return size() + sizeOf(value) > mMaxSize;
+    }
+
+    @Override
+    public boolean admit(@NonNull JCacheKey key, @NonNull V value) {
+        JLruCache<JCacheKey, V> partition = findPartition(key);
+
+        return partition == null || partition.admit(key, value);
+    }
+
+    @Override
+    public boolean trimTo(int targetSize) {
+        boolean trimmed = false;
+
+        for (JLruCache<JCacheKey, V> partition : mPartitions.values()) {
+            int excess = size() - targetSize;
+
+            if (excess <= 0) {
+                break;
+            }
+
+            trimmed |= partition.trimTo(Math.max(0, partition.size() - excess));
+        }
+
+        return trimmed;
+    }
+
+    @Override
+    public int traverseTrim(int maxCount, @NonNull TraverseCallback<JCacheKey, V> callback) {
+        return traverseTrim(maxCount, -1, callback);
+    }
+
+    /**
+     * 从上次停下的分区开始轮着trim，每个分区只在自己的锁里traverse，trim到总的size降到 targetSize 为止
+     * callback 里可以直接调用 remove(key)，会落到当前正在traverse的分区上
+     */
+    @Override
+    public int traverseTrim(int maxCount, int targetSize, @NonNull TraverseCallback<JCacheKey, V> callback) {
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        JLruCache<JCacheKey, V>[] partitions = mPartitions.values().toArray(new JLruCache[0]);
+
+        int partitionCount = partitions.length;
+
+        if (partitionCount == 0) {
+            return 0;
+        }
+
+        int partitionMaxCount = (maxCount + partitionCount - 1) / partitionCount;
+
+        int start;
+
+        synchronized (this) {
+            start = mNextTrimPartition % partitionCount;
+
+            mNextTrimPartition = start + 1;
+        }
+
+        int count = 0;
+
+        for (int i = 0; i < partitionCount && count < maxCount; ++i) {
+            JLruCache<JCacheKey, V> partition = partitions[(start + i) % partitionCount];
+
+            int partitionTargetSize = -1;
+
+            if (targetSize >= 0) {
+                int excess = size() - targetSize;
+
+                if (excess <= 0) {
+                    break;
+                }
+
+                partitionTargetSize = Math.max(0, partition.size() - excess);
+            }
+
+            count += partition.traverseTrim(Math.min(partitionMaxCount, maxCount - count), partitionTargetSize,
+                    callback);
+        }
+
+        return count;
+    }
+
+    /**
+     * 一个分区一个分区地遍历，每次只拿一个分区的锁
+     */
+    @Override
+    public boolean forEach(@NonNull TraverseCallback<JCacheKey, V> callback) {
+        for (JLruCache<JCacheKey, V> partition : mPartitions.values()) {
+            if (!partition.forEach(callback)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * 只遍历创建 cursor 时已经有的分区，一个分区一个分区地往后走
+     */
+    @NonNull
+    @Override
+    public Cursor<JCacheKey, V> cursor() {
+        ArrayList<JLruCache<JCacheKey, V>> partitions = new ArrayList<>(mPartitions.values());
+
+        return new Cursor<JCacheKey, V>() {
+            private int mPartition = 0;
+
+            // 为null时遍历完了
+            @Nullable
+            private Cursor<JCacheKey, V> mCursor = partitions.isEmpty() ? null : partitions.get(0).cursor();
+
+            private boolean mStopped = false;
+
+            @Override
+            public boolean next(int maxCount, @NonNull TraverseCallback<JCacheKey, V> callback) {
+                if (mCursor == null) {
+                    return false;
+                }
+
+                boolean hasNext = mCursor.next(maxCount, (key, value) -> {
+                    mStopped = !callback.onTraverse(key, value);
+
+                    return !mStopped;
+                });
+
+                if (hasNext) {
+                    return true;
+                }
+
+                if (mStopped || ++mPartition >= partitions.size()) {
+                    mCursor = null;
+
+                    return false;
+                }
+
+                mCursor = partitions.get(mPartition).cursor();
+
+                return true;
+            }
+        };
+    }
+
+    /**
+     * 所有分区整个拿掉
+     */
+    @Override
+    public void clear() {
+        mPartitions.clear();
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+
+        for (JLruCache<JCacheKey, V> partition : mPartitions.values()) {
+            size += partition.size();
+        }
+
+        return size;
+    }
+
+    @Override
+    public int maxSize() {
+        return mMaxSize;
+    }
+
+    /**
+     * 按总的 maxSize 算，分区各自的热端加起来可能比它大
+     */
+    @Override
+    public int maxHotSize() {
+        return Math.min(mMaxSize - 1, Math.max(1, (int) (mMaxSize * hotPercent())));
+    }
+
+    /**
+     * 所有分区的平均值，没有分区时是 resize 给的值
+     */
+    @Override
+    public float hotPercent() {
+        float hotPercent = 0.0F;
+
+        int count = 0;
+
+        for (JLruCache<JCacheKey, V> partition : mPartitions.values()) {
+            hotPercent += partition.hotPercent();
+
+            count++;
+        }
+
+        return count == 0 ? mHotPercent : hotPercent / count;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "PartitionedLruCache{" + "partitionCount=" + mPartitions.size() + ", size=" + size() +
+                ", mMaxSize=" + mMaxSize + ", mPartitionMaxSize=" + mPartitionMaxSize + '}';
+    }
+}
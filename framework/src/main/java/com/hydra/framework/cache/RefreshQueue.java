@@ -0,0 +1,162 @@
+package com.hydra.framework.cache;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.hydra.framework.cache.JCache.CacheController;
+import com.hydra.framework.thread.ThreadBus;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Created by Hydra.
+ * <p>
+ * JCache 过期节点的刷新队列，替代之前每次过期命中都 post 一个 lambda 的做法：
+ * 1、按key去重，同一个key在队列里只有一个，后来的节点覆盖前面的
+ * 2、一次最多取 batchSize 个交给 onNeedRefreshBatch
+ * 3、同时最多有 concurrency 个线程在刷新，所有线程跑的是同一个 mDrainTask，不会额外分配
+ * 4、maxRefreshPerSecond > 0 时按每秒刷新的key数限速，超了就 postDelayed 到下一个可以刷新的时间，冷启动时不会把线程池占满
+ * 5、这里不记刷新时间，onNeedRefreshBatch 返回了不代表值变了，新值放回cache时 maxStaleness 才重新开始算
+ */
+final class RefreshQueue<T> {
+
+    private final String mTag;
+
+    private final CacheController<T> mCacheController;
+
+    private final int mLane;
+    private final int mBatchSize;
+    private final int mConcurrency;
+    private final int mMaxRefreshPerSecond;
+
+    // 等待刷新的节点，所有字段都用它加锁
+    private final LinkedHashMap<JCacheKey, JCacheValue<T>> mPending = new LinkedHashMap<>();
+
+    // 正在跑或者已经post出去的 mDrainTask 个数
+    private int mRunningCount = 0;
+
+    // 限速时下一批最早的开始时间
+    private long mNextBatchTime = 0L;
+
+    private final Runnable mDrainTask = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    RefreshQueue(@NonNull String tag, @NonNull CacheController<T> cacheController, int lane, int batchSize,
+                 int concurrency, int maxRefreshPerSecond) {
+        if (batchSize <= 0 || concurrency <= 0) {
+            throw new RuntimeException("RefreshQueue batchSize and concurrency must > 0");
+        }
+
+        mTag = tag;
+        mCacheController = cacheController;
+        mLane = lane;
+        mBatchSize = batchSize;
+        mConcurrency = concurrency;
+        mMaxRefreshPerSecond = maxRefreshPerSecond;
+    }
+
+    void enqueue(@NonNull JCacheValue<T> cacheObject) {
+        synchronized (mPending) {
+            mPending.put(cacheObject.cacheKey, cacheObject);
+
+            if (mRunningCount >= mConcurrency) {
+                return;
+            }
+
+            mRunningCount++;
+        }
+
+        ThreadBus.post(mLane, mDrainTask);
+    }
+
+    private void drain() {
+        LinkedHashMap<JCacheKey, JCacheValue<T>> batch;
+
+        while (true) {
+            synchronized (mPending) {
+                if (mPending.isEmpty()) {
+                    mRunningCount--;
+
+                    return;
+                }
+
+                long delay = mNextBatchTime - System.currentTimeMillis();
+
+                if (delay > 0) {
+                    // 占着名额等到下一个可以刷新的时间，这期间进来的key只会进队列
+                    ThreadBus.postDelayed(mLane, mDrainTask, delay);
+
+                    return;
+                }
+
+                batch = pollBatch();
+
+                if (mMaxRefreshPerSecond > 0) {
+                    mNextBatchTime = Math.max(mNextBatchTime, System.currentTimeMillis()) +
+                            batch.size() * 1000L / mMaxRefreshPerSecond;
+                }
+            }
+
+            try {
+                mCacheController.onNeedRefreshBatch(batch);
+            } catch (RuntimeException e) {
+                Log.e(mTag, "onNeedRefreshBatch error", e);
+            } catch (Throwable e) {
+                // Error 或者偷偷抛出来的受检异常，往外抛之前要把名额交出去，不然这个名额永远被占着
+                onDrainAborted();
+
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * mDrainTask 异常退出时调用：队列里还有节点就再post一个 mDrainTask 接着用这个名额，否则把名额还回去
+     */
+    private void onDrainAborted() {
+        synchronized (mPending) {
+            if (mPending.isEmpty()) {
+                mRunningCount--;
+
+                return;
+            }
+        }
+
+        ThreadBus.post(mLane, mDrainTask);
+    }
+
+    /**
+     * 这个函数在被调用时一定要放到 mPending 的锁里
+     */
+    @NonNull
+    private LinkedHashMap<JCacheKey, JCacheValue<T>> pollBatch() {
+        int count = Math.min(mBatchSize, mPending.size());
+
+        LinkedHashMap<JCacheKey, JCacheValue<T>> batch = new LinkedHashMap<>(count * 2);
+
+        Iterator<Map.Entry<JCacheKey, JCacheValue<T>>> iterator = mPending.entrySet().iterator();
+
+        while (iterator.hasNext() && batch.size() < count) {
+            Map.Entry<JCacheKey, JCacheValue<T>> entry = iterator.next();
+
+            batch.put(entry.getKey(), entry.getValue());
+
+            iterator.remove();
+        }
+
+        return batch;
+    }
+
+    void clear() {
+        synchronized (mPending) {
+            mPending.clear();
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package com.hydra.framework.cache;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.hydra.framework.cache.JCache.Tagger;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Created by Hydra.
+ * <p>
+ * JCache 的二级索引，按key的某几个分量或者 Tagger 算出来的tag找到所有对应的key，
+ * invalidateByComponent、invalidateByTag 的开销只和匹配的key数有关，不用扫整个cache
+ * 1、索引的是hard和weak里所有的key，节点在两层之间挪动时不用改
+ * 2、节点放进hard时 add，被删掉时 remove；weak里被回收的key会晚一点才从索引里删掉，invalidate 一个已经不在的key没有影响
+ * 3、key的分量不会变，只在第一次 add 时记；tag是按值算的，值变了会重新算
+ * 4、分量按 String.valueOf 索引，和 JCacheKey 的 equals 一样，1 和 1L 是同一个分量
+ * <p>
+ * 不是线程安全的，JCache 只在 mLock 里用
+ */
+final class SecondaryIndex<T> {
+
+    private final int[] mComponents;
+
+    // 和 mComponents 一一对应，分量 -> key
+    private final HashMap<String, HashSet<JCacheKey>>[] mComponentIndexes;
+
+    @Nullable
+    private final Tagger<T> mTagger;
+
+    private HashMap<Object, HashSet<JCacheKey>> mTagIndex = new HashMap<>();
+
+    // 索引里所有的key和它们现在的tag，没有 tagger 时都是空的
+    private HashMap<JCacheKey, Collection<?>> mKeys = new HashMap<>();
+
+    SecondaryIndex(@Nullable int[] components, @Nullable Tagger<T> tagger) {
+        mComponents = components == null ? new int[0] : components.clone();
+        mTagger = tagger;
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        HashMap<String, HashSet<JCacheKey>>[] componentIndexes = new HashMap[mComponents.length];
+        mComponentIndexes = componentIndexes;
+
+        for (int i = 0; i < mComponents.length; ++i) {
+            if (mComponents[i] < 0) {
+                throw new RuntimeException("SecondaryIndex component index must >= 0");
+            }
+
+            mComponentIndexes[i] = new HashMap<>();
+        }
+    }
+
+    void add(@NonNull JCacheKey cacheKey, @NonNull T value) {
+        Collection<?> tags = tagsOf(cacheKey, value);
+
+        Collection<?> oldTags = mKeys.put(cacheKey, tags);
+
+        if (oldTags == null) {
+            for (int i = 0; i < mComponents.length; ++i) {
+                if (mComponents[i] < cacheKey.keyCount()) {
+                    addTo(mComponentIndexes[i], componentOf(cacheKey, mComponents[i]), cacheKey);
+                }
+            }
+        } else if (oldTags.equals(tags)) {
+            return;
+        } else {
+            for (Object tag : oldTags) {
+                removeFrom(mTagIndex, tag, cacheKey);
+            }
+        }
+
+        for (Object tag : tags) {
+            addTo(mTagIndex, tag, cacheKey);
+        }
+    }
+
+    void remove(@NonNull JCacheKey cacheKey) {
+        Collection<?> tags = mKeys.remove(cacheKey);
+
+        if (tags == null) {
+            return;
+        }
+
+        for (int i = 0; i < mComponents.length; ++i) {
+            if (mComponents[i] < cacheKey.keyCount()) {
+                removeFrom(mComponentIndexes[i], componentOf(cacheKey, mComponents[i]), cacheKey);
+            }
+        }
+
+        for (Object tag : tags) {
+            removeFrom(mTagIndex, tag, cacheKey);
+        }
+    }
+
+    /**
+     * @return 返回的是索引里的set，不能修改，要在 remove 之前拷出来
+     */
+    @NonNull
+    Set<JCacheKey> keysForComponent(int index, @NonNull Object component) {
+        for (int i = 0; i < mComponents.length; ++i) {
+            if (mComponents[i] == index) {
+                return keysOf(mComponentIndexes[i], String.valueOf(component));
+            }
+        }
+
+        throw new RuntimeException("key component " + index +
+                " is not indexed, declare it by JCacheBuilder.indexedComponents");
+    }
+
+    /**
+     * @return 返回的是索引里的set，不能修改，要在 remove 之前拷出来
+     */
+    @NonNull
+    Set<JCacheKey> keysForTag(@NonNull Object tag) {
+        if (mTagger == null) {
+            throw new RuntimeException("tag is not indexed, declare it by JCacheBuilder.tagger");
+        }
+
+        return keysOf(mTagIndex, tag);
+    }
+
+    /**
+     * 把已经不在cache里的key删掉，weak里被回收的key要靠这个清理
+     */
+    void retainAll(@NonNull Set<JCacheKey> liveKeys) {
+        JCacheKey[] keys = mKeys.keySet().toArray(new JCacheKey[0]);
+
+        for (JCacheKey cacheKey : keys) {
+            if (!liveKeys.contains(cacheKey)) {
+                remove(cacheKey);
+            }
+        }
+    }
+
+    int size() {
+        return mKeys.size();
+    }
+
+    /**
+     * 都换成新的表，不用把旧的扫一遍
+     */
+    void clear() {
+        for (int i = 0; i < mComponentIndexes.length; ++i) {
+            mComponentIndexes[i] = new HashMap<>();
+        }
+
+        mTagIndex = new HashMap<>();
+        mKeys = new HashMap<>();
+    }
+
+    @NonNull
+    private Collection<?> tagsOf(@NonNull JCacheKey cacheKey, @NonNull T value) {
+        if (mTagger == null) {
+            return Collections.emptyList();
+        }
+
+        Collection<?> tags = mTagger.tagsOf(cacheKey, value);
+
+        return tags == null ? Collections.emptyList() : tags;
+    }
+
+    @NonNull
+    private static String componentOf(@NonNull JCacheKey cacheKey, int index) {
+        // keyAt 是泛型返回，直接传给 valueOf 会被推断成 valueOf(char[])，先放到Object里
+        Object component = cacheKey.keyAt(index);
+
+        return String.valueOf(component);
+    }
+
+    @NonNull
+    private static <I> Set<JCacheKey> keysOf(@NonNull Map<I, HashSet<JCacheKey>> index, @NonNull I indexKey) {
+        HashSet<JCacheKey> keys = index.get(indexKey);
+
+        return keys == null ? Collections.<JCacheKey>emptySet() : keys;
+    }
+
+    private static <I> void addTo(@NonNull Map<I, HashSet<JCacheKey>> index, @NonNull I indexKey,
+                                  @NonNull JCacheKey cacheKey) {
+        HashSet<JCacheKey> keys = index.get(indexKey);
+
+        if (keys == null) {
+            keys = new HashSet<>();
+
+            index.put(indexKey, keys);
+        }
+
+        keys.add(cacheKey);
+    }
+
+    private static <I> void removeFrom(@NonNull Map<I, HashSet<JCacheKey>> index, @NonNull I indexKey,
+                                       @NonNull JCacheKey cacheKey) {
+        HashSet<JCacheKey> keys = index.get(indexKey);
+
+        if (keys != null && keys.remove(cacheKey) && keys.isEmpty()) {
+            index.remove(indexKey);
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.hydra.framework.cache;
+
+/**
+ * Created by Hydra.
+ * <p>
+ * Expiry 用的时钟，单位是纳秒，只能用来算时间差；测试时可以换成手动拨的时钟
+ */
+public interface Ticker {
+
+    long read();
+
+    Ticker SYSTEM = new Ticker() {
+        @Override
+        public long read() {
+            return System.nanoTime();
+        }
+    };
+}
@@ -0,0 +1,241 @@
+package com.hydra.framework.cache;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.HashMap;
+
+/**
+ * Created by Hydra.
+ * 算法参考：Varghese & Lauck, Hashed and Hierarchical Timing Wheels
+ * <p>
+ * 分层的时间轮，每层的一格分别约是 1秒、1分钟、1小时、1天，最后一层只有一格放更远的
+ * 1、schedule、deschedule 都是 O(1)，按key找节点，挂到对应层的格子的双向链表上
+ * 2、advance 时只看时间走过了的格子，高层的格子到了就把节点重新分到低层，低层的格子到了就回调 ExpireCallback
+ * 3、格子按时间的高位取模，所以节点的精度就是它所在层的一格，一个还没到时间的节点到了格子之后会被重新放回去
+ * <p>
+ * 不是线程安全的，JCache 只在 mLock 里用
+ */
+final class TimerWheel<K> {
+
+    interface ExpireCallback<K> {
+        /**
+         * 节点到时间了，返回它现在真正的过期时间：还没到的话会被重新放回时间轮，否则从时间轮里拿掉
+         * 回调里不能再操作时间轮
+         */
+        long onExpire(@NonNull K key, long now);
+    }
+
+    private static final int[] BUCKETS = {64, 64, 32, 4, 1};
+
+    // 每层一格的长度，最后一个是倒数第二层一圈的长度：比它远的放到最后一层，不然会在倒数第二层转一圈之后提前到格子
+    private static final long[] SPANS = {
+            1L << 30, // 1.07s
+            1L << 36, // 1.14m
+            1L << 42, // 1.22h
+            1L << 46, // 0.81d
+            4L << 46, // 3.26d，BUCKETS[3] * SPANS[3]
+            4L << 46, // 3.26d
+    };
+
+    // SPANS 的 log2，最后一层按它一圈的长度推进
+    private static final int[] SHIFT = {30, 36, 42, 46, 48};
+
+    private final Node<K>[][] mWheel;
+
+    private HashMap<K, Node<K>> mNodes = new HashMap<>();
+
+    // 上一次 advance 的时间
+    private long mNanos;
+
+    TimerWheel(long nanos) {
+        mNanos = nanos;
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        Node<K>[][] wheel = new Node[BUCKETS.length][];
+
+        mWheel = wheel;
+
+        for (int i = 0; i < BUCKETS.length; ++i) {
+            @SuppressWarnings({"unchecked", "rawtypes"})
+            Node<K>[] buckets = new Node[BUCKETS[i]];
+
+            mWheel[i] = buckets;
+
+            for (int j = 0; j < BUCKETS[i]; ++j) {
+                mWheel[i][j] = new Node<>(null);
+            }
+        }
+    }
+
+    /**
+     * 放进时间轮，key已经在里面时改成新的时间；time 是 Expiry.NEVER 时拿掉
+     */
+    void schedule(@NonNull K key, long time) {
+        if (time == Expiry.NEVER) {
+            deschedule(key);
+
+            return;
+        }
+
+        Node<K> node = mNodes.get(key);
+
+        if (node == null) {
+            node = new Node<>(key);
+
+            mNodes.put(key, node);
+        } else if (node.time == time) {
+            return;
+        } else {
+            unlink(node);
+        }
+
+        node.time = time;
+
+        link(findBucket(time), node);
+    }
+
+    void deschedule(@NonNull K key) {
+        Node<K> node = mNodes.remove(key);
+
+        if (node != null) {
+            unlink(node);
+        }
+    }
+
+    /**
+     * 把时间轮拨到 now，到时间的节点都回调一次
+     */
+    void advance(long now, @NonNull ExpireCallback<K> callback) {
+        long previous = mNanos;
+
+        mNanos = now;
+
+        for (int i = 0; i < SHIFT.length; ++i) {
+            long previousTicks = previous >>> SHIFT[i];
+            long currentTicks = now >>> SHIFT[i];
+
+            // 这一层没有走过一格，更高的层也不会走
+            if (currentTicks - previousTicks <= 0L) {
+                break;
+            }
+
+            expire(i, previousTicks, currentTicks, callback);
+        }
+    }
+
+    private void expire(int index, long previousTicks, long currentTicks, @NonNull ExpireCallback<K> callback) {
+        Node<K>[] timerWheel = mWheel[index];
+
+        int mask = timerWheel.length - 1;
+
+        // 走过的格子，最多一圈
+        int steps = (int) Math.min(1L + (currentTicks - previousTicks), timerWheel.length);
+        int start = (int) (previousTicks & mask);
+
+        for (int i = start; i < start + steps; ++i) {
+            Node<K> sentinel = timerWheel[i & mask];
+
+            // 整条链先摘下来，重新放回去的节点不会在这一轮被再看到
+            Node<K> node = sentinel.next;
+
+            sentinel.pre = sentinel.next = sentinel;
+
+            while (node != sentinel) {
+                Node<K> next = node.next;
+
+                node.pre = node.next = null;
+
+                if (node.time - mNanos > 0L) {
+                    link(findBucket(node.time), node);
+                } else {
+                    long time = callback.onExpire(node.key, mNanos);
+
+                    if (time != Expiry.NEVER && time - mNanos > 0L) {
+                        node.time = time;
+
+                        link(findBucket(time), node);
+                    } else {
+                        mNodes.remove(node.key);
+                    }
+                }
+
+                node = next;
+            }
+        }
+    }
+
+    @NonNull
+    private Node<K> findBucket(long time) {
+        long duration = time - mNanos;
+
+        int length = mWheel.length - 1;
+
+        for (int i = 0; i < length; ++i) {
+            if (duration < SPANS[i + 1]) {
+                long ticks = time >>> SHIFT[i];
+
+                int index = (int) (ticks & (mWheel[i].length - 1));
+
+                return mWheel[i][index];
+            }
+        }
+
+        return mWheel[length][0];
+    }
+
+    private static <K> void link(@NonNull Node<K> sentinel, @NonNull Node<K> node) {
+        node.pre = sentinel.pre;
+        node.next = sentinel;
+
+        sentinel.pre.next = node;
+        sentinel.pre = node;
+    }
+
+    private static <K> void unlink(@NonNull Node<K> node) {
+        // advance 的过程中节点可能已经被摘下来了
+        if (node.next == null) {
+            return;
+        }
+
+        node.pre.next = node.next;
+        node.next.pre = node.pre;
+
+        node.pre = node.next = null;
+    }
+
+    int size() {
+        return mNodes.size();
+    }
+
+    void clear() {
+        for (Node<K>[] timerWheel : mWheel) {
+            for (Node<K> sentinel : timerWheel) {
+                sentinel.pre = sentinel.next = sentinel;
+            }
+        }
+
+        // 换新的表，HashMap.clear 要把整张表扫一遍，旧的节点整体交给GC
+        mNodes = new HashMap<>();
+    }
+
+    private static final class Node<K> {
+
+        @Nullable
+        final K key;
+
+        long time;
+
+        Node<K> pre;
+        Node<K> next;
+
+        Node(@Nullable K key) {
+            this.key = key;
+
+            // 哨兵自己连成环，普通节点挂上去之前是null
+            if (key == null) {
+                pre = next = this;
+            }
+        }
+    }
+}
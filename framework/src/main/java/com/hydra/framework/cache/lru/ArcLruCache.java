@@ -0,0 +1,185 @@
+package com.hydra.framework.cache.lru;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Created by Hydra.
+ * 算法参考：Megiddo & Modha, ARC: A Self-Tuning, Low Overhead Replacement Cache
+ * <p>
+ * T1 是只访问过一次的节点，T2 是访问过多次的节点，B1、B2 分别是从 T1、T2 淘汰出去的ghost
+ * 新节点命中 B1 说明 T1 太小了，把 T1 的目标大小 p 调大；命中 B2 就调小，不需要手动调 hotPercent
+ * <p>
+ * 所有大小都按size算，hotPercent 只决定 p 的初始值：p = maxSize * (1 - hotPercent)
+ */
+public class ArcLruCache<K, V> extends PolicyLruCache<K, V> {
+
+    private static final int STATUS_T1 = 0;
+    private static final int STATUS_T2 = 1;
+    private static final int STATUS_B1 = 2;
+    private static final int STATUS_B2 = 3;
+
+    private final PolicyList<K, V> mT1 = new PolicyList<>(false);
+    private final PolicyList<K, V> mT2 = new PolicyList<>(false);
+    private final PolicyList<K, V> mB1 = new PolicyList<>(false);
+    private final PolicyList<K, V> mB2 = new PolicyList<>(false);
+
+    // T1 的目标大小
+    private int mP;
+
+    // 正在放进来的节点是不是命中了 B2，selectVictim 的时候要用
+    private boolean mAdmitHitB2 = false;
+
+    public ArcLruCache(int maxSize, float hotPercent) {
+        this(maxSize, hotPercent, null);
+    }
+
+    public ArcLruCache(int maxSize, float hotPercent, @Nullable Weigher<V> weigher) {
+        super(maxSize, hotPercent, weigher);
+
+        mP = (int) ((float) maxSize * (1.0F - hotPercent));
+    }
+
+    @Override
+    public int maxHotSize() {
+        return Math.min(mMaxSize - 1, Math.max(1, mMaxSize - mP));
+    }
+
+    @Override
+    void onAccess(@NonNull PolicyNode<K, V> node) {
+        if (node.status == STATUS_T2) {
+            mT2.moveToFirst(node);
+
+            return;
+        }
+
+        mT1.remove(node);
+
+        node.status = STATUS_T2;
+        mT2.addFirst(node);
+    }
+
+    @Override
+    void onAdmit(@NonNull PolicyNode<K, V> node) {
+        PolicyNode<K, V> ghost = mGhosts.remove(node.key);
+
+        mAdmitHitB2 = false;
+
+        if (ghost == null) {
+            node.status = STATUS_T1;
+
+            trimGhosts(node.size);
+
+            return;
+        }
+
+        if (ghost.status == STATUS_B1) {
+            int delta = mB1.weight() >= mB2.weight() ? ghost.size :
+                    (int) ((long) ghost.size * mB2.weight() / mB1.weight());
+
+            mP = Math.min(mMaxSize, mP + delta);
+
+            mB1.remove(ghost);
+        } else {
+            int delta = mB2.weight() >= mB1.weight() ? ghost.size :
+                    (int) ((long) ghost.size * mB1.weight() / mB2.weight());
+
+            mP = Math.max(0, mP - delta);
+
+            mB2.remove(ghost);
+
+            mAdmitHitB2 = true;
+        }
+
+        node.status = STATUS_T2;
+    }
+
+    /**
+     * T1 + B1 不超过 maxSize，所有链表加起来不超过 2 * maxSize
+     */
+    private void trimGhosts(int incomingSize) {
+        PolicyNode<K, V> last;
+
+        while (mT1.weight() + mB1.weight() + incomingSize > mMaxSize && (last = mB1.last()) != null) {
+            dropGhost(mB1, last);
+        }
+
+        while (mT1.weight() + mT2.weight() + mB1.weight() + mB2.weight() + incomingSize > 2 * mMaxSize &&
+                (last = mB2.last()) != null) {
+            dropGhost(mB2, last);
+        }
+    }
+
+    private void dropGhost(@NonNull PolicyList<K, V> list, @NonNull PolicyNode<K, V> ghost) {
+        list.remove(ghost);
+
+        mGhosts.remove(ghost.key);
+    }
+
+    @Override
+    void onLink(@NonNull PolicyNode<K, V> node) {
+        if (node.status == STATUS_T2) {
+            mT2.addFirst(node);
+        } else {
+            mT1.addFirst(node);
+        }
+
+        mAdmitHitB2 = false;
+    }
+
+    @NonNull
+    @Override
+    PolicyNode<K, V> selectVictim() {
+        int t1Weight = mT1.weight();
+
+        if (!mT1.isEmpty() && (t1Weight > mP || (mAdmitHitB2 && t1Weight == mP) || mT2.isEmpty())) {
+            return mT1.last();
+        }
+
+        return mT2.last();
+    }
+
+    @Override
+    void onEvict(@NonNull PolicyNode<K, V> node) {
+        onRemove(node);
+
+        // 节点对象直接留下来当ghost，value 会在外面被置成null
+        if (node.status == STATUS_T1) {
+            node.status = STATUS_B1;
+            mB1.addFirst(node);
+        } else {
+            node.status = STATUS_B2;
+            mB2.addFirst(node);
+        }
+
+        mGhosts.put(node.key, node);
+
+        trimGhosts(0);
+    }
+
+    @Override
+    void onRemove(@NonNull PolicyNode<K, V> node) {
+        if (node.status == STATUS_T2) {
+            mT2.remove(node);
+        } else {
+            mT1.remove(node);
+        }
+    }
+
+    @Override
+    void onResize() {
+        mP = Math.min(mP, mMaxSize);
+
+        trimGhosts(0);
+    }
+
+    @Override
+    void onClear() {
+        mT1.clear();
+        mT2.clear();
+        mB1.clear();
+        mB2.clear();
+
+        mP = (int) ((float) mMaxSize * (1.0F - mHotPercent));
+    }
+}
@@ -0,0 +1,324 @@
+package com.hydra.framework.cache.lru;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Created by Hydra.
+ * 算法参考：Jiang, Chen & Zhang, CLOCK-Pro: An Effective Improvement of the CLOCK Replacement
+ * <p>
+ * 所有节点(热、冷、冷节点淘汰后留下的ghost)都在一个环上，命中时只置引用位，不移动节点：
+ * 1、handCold 找没有被引用过的冷节点淘汰，测试期内被引用过的冷节点升成热的
+ * 2、handHot 把没有被引用过的热节点降成冷的，顺便结束冷节点的测试期、拿掉ghost
+ * 3、handTest 控制ghost的个数，测试期没有被再次访问就把冷节点的目标大小调小，ghost 被访问到就调大
+ * <p>
+ * 冷节点的目标大小初始是 maxSize * (1 - hotPercent)，之后自适应
+ */
+public class ClockProLruCache<K, V> extends PolicyLruCache<K, V> {
+
+    private static final int STATUS_HOT = 0;
+    private static final int STATUS_COLD = 1;
+    private static final int STATUS_GHOST = 2;
+
+    @Nullable
+    private PolicyNode<K, V> mHandHot = null;
+    @Nullable
+    private PolicyNode<K, V> mHandCold = null;
+    @Nullable
+    private PolicyNode<K, V> mHandTest = null;
+
+    private int mHotSize = 0;
+    private int mColdSize = 0;
+    private int mGhostSize = 0;
+
+    private int mColdTarget;
+
+    public ClockProLruCache(int maxSize, float hotPercent) {
+        this(maxSize, hotPercent, null);
+    }
+
+    public ClockProLruCache(int maxSize, float hotPercent, @Nullable Weigher<V> weigher) {
+        super(maxSize, hotPercent, weigher);
+
+        mColdTarget = initColdTarget();
+    }
+
+    private int initColdTarget() {
+        return clampColdTarget((int) ((float) mMaxSize * (1.0F - mHotPercent)));
+    }
+
+    // 至少留1给冷节点，也至少留1给热节点
+    private int clampColdTarget(int coldTarget) {
+        return Math.max(1, Math.min(mMaxSize - 1, coldTarget));
+    }
+
+    @Override
+    public int maxHotSize() {
+        return mMaxSize - mColdTarget;
+    }
+
+    @Override
+    void onAccess(@NonNull PolicyNode<K, V> node) {
+        node.referenced = true;
+    }
+
+    @Override
+    void onAdmit(@NonNull PolicyNode<K, V> node) {
+        PolicyNode<K, V> ghost = mGhosts.get(node.key);
+
+        if (ghost == null) {
+            node.status = STATUS_COLD;
+            node.inTest = true;
+
+            return;
+        }
+
+        // 测试期内又被访问了，说明冷节点的空间不够
+        mColdTarget = clampColdTarget(mColdTarget + ghost.size);
+
+        removeGhost(ghost);
+
+        node.status = STATUS_HOT;
+    }
+
+    @Override
+    void onLink(@NonNull PolicyNode<K, V> node) {
+        insertAtHead(node);
+
+        if (node.status == STATUS_HOT) {
+            mHotSize += node.size;
+
+            while (mHotSize > maxHotSize() && mHotSize > node.size) {
+                runHandHot();
+            }
+        } else {
+            mColdSize += node.size;
+        }
+    }
+
+    @NonNull
+    @Override
+    PolicyNode<K, V> selectVictim() {
+        while (true) {
+            if (mColdSize == 0) {
+                runHandHot();
+
+                continue;
+            }
+
+            PolicyNode<K, V> node = mHandCold;
+
+            if (node.status != STATUS_COLD) {
+                mHandCold = node.next;
+
+                continue;
+            }
+
+            if (!node.referenced) {
+                return node;
+            }
+
+            node.referenced = false;
+
+            if (node.inTest) {
+                // 测试期内被引用过，升成热节点
+                node.status = STATUS_HOT;
+                node.inTest = false;
+
+                mColdSize -= node.size;
+                mHotSize += node.size;
+
+                moveToHead(node);
+
+                while (mHotSize > maxHotSize() && mColdSize + mHotSize > node.size) {
+                    runHandHot();
+                }
+            } else {
+                // 重新开始测试期
+                node.inTest = true;
+
+                moveToHead(node);
+            }
+        }
+    }
+
+    @Override
+    void onEvict(@NonNull PolicyNode<K, V> node) {
+        if (node.status != STATUS_COLD || !node.inTest) {
+            onRemove(node);
+
+            return;
+        }
+
+        // 测试期内的冷节点被淘汰，留在环上原来的位置当ghost
+        mColdSize -= node.size;
+
+        node.status = STATUS_GHOST;
+
+        if (mHandCold == node) {
+            mHandCold = node.next;
+        }
+
+        mGhosts.put(node.key, node);
+        mGhostSize += node.size;
+
+        while (mGhostSize > mMaxSize) {
+            runHandTest();
+        }
+    }
+
+    @Override
+    void onRemove(@NonNull PolicyNode<K, V> node) {
+        removeFromRing(node);
+
+        if (node.status == STATUS_HOT) {
+            mHotSize -= node.size;
+        } else {
+            mColdSize -= node.size;
+        }
+    }
+
+    /**
+     * 找到一个没有被引用过的热节点降成冷的
+     */
+    private void runHandHot() {
+        while (mHotSize > 0) {
+            PolicyNode<K, V> node = mHandHot;
+
+            if (node.status == STATUS_GHOST) {
+                // ghost 的测试期结束了
+                removeGhost(node);
+
+                continue;
+            }
+
+            mHandHot = node.next;
+
+            if (node.status == STATUS_COLD) {
+                node.inTest = false;
+            } else if (node.referenced) {
+                node.referenced = false;
+            } else {
+                node.status = STATUS_COLD;
+
+                mHotSize -= node.size;
+                mColdSize += node.size;
+
+                return;
+            }
+        }
+    }
+
+    /**
+     * 拿掉一个ghost，路过的冷节点的测试期也结束了，都没有被再次访问，把冷节点的目标大小调小
+     */
+    private void runHandTest() {
+        while (mGhostSize > 0) {
+            PolicyNode<K, V> node = mHandTest;
+
+            if (node.status == STATUS_GHOST) {
+                mColdTarget = clampColdTarget(mColdTarget - node.size);
+
+                removeGhost(node);
+
+                return;
+            }
+
+            if (node.status == STATUS_COLD && node.inTest) {
+                node.inTest = false;
+
+                mColdTarget = clampColdTarget(mColdTarget - node.size);
+            }
+
+            mHandTest = node.next;
+        }
+    }
+
+    private void removeGhost(@NonNull PolicyNode<K, V> ghost) {
+        removeFromRing(ghost);
+
+        mGhosts.remove(ghost.key);
+
+        mGhostSize -= ghost.size;
+    }
+
+    /**
+     * 新节点放在 handHot 的后面，三个指针都是最后才会走到它
+     */
+    private void insertAtHead(@NonNull PolicyNode<K, V> node) {
+        PolicyNode<K, V> head = mHandHot;
+
+        if (head == null) {
+            node.next = node.pre = node;
+
+            mHandHot = mHandCold = mHandTest = node;
+
+            return;
+        }
+
+        node.next = head;
+        node.pre = head.pre;
+
+        head.pre.next = node;
+        head.pre = node;
+    }
+
+    private void moveToHead(@NonNull PolicyNode<K, V> node) {
+        if (node.next == node) {
+            return;
+        }
+
+        removeFromRing(node);
+        insertAtHead(node);
+    }
+
+    private void removeFromRing(@NonNull PolicyNode<K, V> node) {
+        PolicyNode<K, V> next = node.next;
+
+        if (next == node) {
+            mHandHot = mHandCold = mHandTest = null;
+        } else {
+            if (mHandHot == node) {
+                mHandHot = next;
+            }
+
+            if (mHandCold == node) {
+                mHandCold = next;
+            }
+
+            if (mHandTest == node) {
+                mHandTest = next;
+            }
+
+            node.pre.next = next;
+            next.pre = node.pre;
+        }
+
+        node.pre = node.next = null;
+    }
+
+    @Override
+    void onResize() {
+        mColdTarget = clampColdTarget(mColdTarget);
+
+        while (mHotSize > maxHotSize()) {
+            runHandHot();
+        }
+
+        while (mGhostSize > mMaxSize) {
+            runHandTest();
+        }
+    }
+
+    @Override
+    void onClear() {
+        // 环不用拆开，三个指针都放掉之后整个环一起被GC
+        mHandHot = mHandCold = mHandTest = null;
+
+        mHotSize = 0;
+        mColdSize = 0;
+        mGhostSize = 0;
+
+        mColdTarget = initColdTarget();
+    }
+}
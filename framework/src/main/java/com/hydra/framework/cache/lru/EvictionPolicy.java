@@ -0,0 +1,93 @@
+package com.hydra.framework.cache.lru;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Created by Hydra.
+ * <p>
+ * 淘汰策略，JCacheBuilder.evictionPolicy() 按这个创建hard的LRU，weak永远是 HOT_END
+ * 不同的访问模式适合不同的策略，可以按每个cache实际的命中率来选：
+ * 1、HOT_END：默认的热冷双指针，见 HotEndLruCache
+ * 2、ARC：最近访问和多次访问两个队列，按ghost的命中自动调整两边的大小
+ * 3、LIRS：按两次访问的间隔分冷热，对循环扫描友好
+ * 4、SLRU：probation 和 protected 两段LRU
+ * 5、CLOCK_PRO：LIRS 的CLOCK近似，命中时只置引用位
+ * <p>
+ * 也可以自己实现这个接口，返回任意的 JLruCache，get 需要是线程安全的，JCache 读的时候不加锁
+ */
+public interface EvictionPolicy {
+
+    @NonNull
+    <K, V> JLruCache<K, V> create(int maxSize, float hotPercent, @Nullable Weigher<V> weigher);
+
+    EvictionPolicy HOT_END = new EvictionPolicy() {
+        @NonNull
+        @Override
+        public <K, V> JLruCache<K, V> create(int maxSize, float hotPercent, @Nullable Weigher<V> weigher) {
+            return new HotEndLruCache<>(maxSize, hotPercent, weigher);
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return "HOT_END";
+        }
+    };
+
+    EvictionPolicy ARC = new EvictionPolicy() {
+        @NonNull
+        @Override
+        public <K, V> JLruCache<K, V> create(int maxSize, float hotPercent, @Nullable Weigher<V> weigher) {
+            return new ArcLruCache<>(maxSize, hotPercent, weigher);
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return "ARC";
+        }
+    };
+
+    EvictionPolicy LIRS = new EvictionPolicy() {
+        @NonNull
+        @Override
+        public <K, V> JLruCache<K, V> create(int maxSize, float hotPercent, @Nullable Weigher<V> weigher) {
+            return new LirsLruCache<>(maxSize, hotPercent, weigher);
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return "LIRS";
+        }
+    };
+
+    EvictionPolicy SLRU = new EvictionPolicy() {
+        @NonNull
+        @Override
+        public <K, V> JLruCache<K, V> create(int maxSize, float hotPercent, @Nullable Weigher<V> weigher) {
+            return new SlruLruCache<>(maxSize, hotPercent, weigher);
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return "SLRU";
+        }
+    };
+
+    EvictionPolicy CLOCK_PRO = new EvictionPolicy() {
+        @NonNull
+        @Override
+        public <K, V> JLruCache<K, V> create(int maxSize, float hotPercent, @Nullable Weigher<V> weigher) {
+            return new ClockProLruCache<>(maxSize, hotPercent, weigher);
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return "CLOCK_PRO";
+        }
+    };
+}
@@ -0,0 +1,118 @@
+package com.hydra.framework.cache.lru;
+
+/**
+ * Created by Hydra.
+ * <p>
+ * TinyLFU 用的 count-min sketch：每个int里存8个4bit的计数器，每个key落在4个不同的计数器上，取最小值作为频率
+ * 计数的总次数到了 sampleSize 之后所有计数器减半，让旧的热度慢慢衰减
+ * <p>
+ * increment 可能在无锁的读里被并发调用，计数是有损的，这里只需要一个大概的频率
+ */
+final class FrequencySketch {
+
+    private static final int[] SEEDS = {0x97cb3127, 0xab68f4d5, 0x5f6b2b45, 0x3c6ef372};
+
+    private static final int RESET_MASK = 0x77777777;
+    private static final int ONE_MASK = 0x11111111;
+
+    private static final int MAX_TABLE_SIZE = 1 << 22;
+
+    private volatile int[] mTable = new int[1];
+
+    private int mSampleSize = 10;
+
+    private int mSize = 0;
+
+    /**
+     * 只会变大，在写锁里调用
+     */
+    void ensureCapacity(int maximumSize) {
+        int maximum = Math.min(Math.max(maximumSize, 1), MAX_TABLE_SIZE);
+
+        if (mTable.length >= maximum) {
+            return;
+        }
+
+        int capacity = 1;
+
+        while (capacity < maximum) {
+            capacity <<= 1;
+        }
+
+        mSampleSize = 10 * maximum;
+        mSize = 0;
+
+        mTable = new int[capacity];
+    }
+
+    int frequency(int hash) {
+        int[] table = mTable;
+
+        int h = rehash(hash);
+        int start = (h & 3) << 2;
+
+        int frequency = Integer.MAX_VALUE;
+
+        for (int i = 0; i < 4; ++i) {
+            int index = indexOf(table, h, i);
+            int offset = ((start + i) & 7) << 2;
+
+            frequency = Math.min(frequency, (table[index] >>> offset) & 0xF);
+        }
+
+        return frequency;
+    }
+
+    void increment(int hash) {
+        int[] table = mTable;
+
+        int h = rehash(hash);
+        int start = (h & 3) << 2;
+
+        boolean added = false;
+
+        for (int i = 0; i < 4; ++i) {
+            int index = indexOf(table, h, i);
+            int offset = ((start + i) & 7) << 2;
+
+            int mask = 0xF << offset;
+
+            if ((table[index] & mask) != mask) {
+                table[index] += 1 << offset;
+
+                added = true;
+            }
+        }
+
+        if (added && ++mSize >= mSampleSize) {
+            reset(table);
+        }
+    }
+
+    private void reset(int[] table) {
+        int count = 0;
+
+        for (int i = 0; i < table.length; ++i) {
+            count += Integer.bitCount(table[i] & ONE_MASK);
+
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+
+        mSize = (mSize >>> 1) - (count >>> 2);
+    }
+
+    private static int indexOf(int[] table, int h, int i) {
+        long hash = (SEEDS[i] + (long) h) * SEEDS[i];
+
+        hash += hash >>> 32;
+
+        return (int) hash & (table.length - 1);
+    }
+
+    private static int rehash(int x) {
+        x *= 0x31848bab;
+        x ^= x >>> 14;
+
+        return x;
+    }
+}
@@ -1,7 +1,11 @@
 package com.hydra.framework.cache.lru;
 
-import java.util.HashMap;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -10,66 +14,357 @@ import androidx.annotation.Nullable;
  * Created by Hydra.
  * 设计参考文档：https://www.cnblogs.com/cyjb/archive/2012/11/16/LruCache.html
  * 以及：https://blog.51cto.com/yeshaochen/913342
+ * <p>
+ * get 不加锁，命中时只把节点记到 ReadBuffer 里，visitCount 等拿到锁的时候再批量加，
+ * buffer满了的时候 tryLock 一次，拿不到锁就留给下一次写操作；
+ * 热冷环只在写操作(put、remove、trim、resize)里改，由 mLock 独占
+ * <p>
+ * 索引是节点自己用 hashNext 串起来的hash表，热冷环和索引共用同一个 LruNode，每个缓存值只多一个对象
+ * <p>
+ * enableAdaptiveHotPercent 之后热端的大小不再固定，参考ARC调整p的方式：
+ * 记住最近淘汰的key，没被提升过的新key又回来了说明冷端太小，把热端调小；被提升过的key又回来了说明热端太小，把热端调大
  */
-public class HotEndLruCache<K, V> {
+public class HotEndLruCache<K, V> implements JLruCache<K, V> {
 
     // hot node 和 cold node 分界线，>= 2 时是hot
     private static final int HOT_COLD_BOUNDARY = 2;
 
+    // 自适应时热端大小的范围
+    private static final float MIN_ADAPTIVE_HOT_PERCENT = 0.1F;
+    private static final float MAX_ADAPTIVE_HOT_PERCENT = 0.9F;
+
+    // ghost 最少记这么多个key
+    private static final int MIN_GHOST_CAPACITY = 16;
+
     private int mCurSize = 0;
     private int mMaxSize = 0;
 
     private int mHotSize = 0;
     private int mMaxHotSize = 0;
 
-    private final HashMap<K, LruNode<K, V>> mLocationMap = new HashMap<>(100);
+    private float mHotPercent = 0.0F;
+
+    // 环上的节点个数，有weigher时和 mCurSize 不一样
+    private int mNodeCount = 0;
+
+    private static final int MIN_TABLE_CAPACITY = 16;
+
+    // 桶的读写都是volatile的，配合 LruNode.hashNext 支持无锁读
+    private volatile AtomicReferenceArray<LruNode<K, V>> mTable = new AtomicReferenceArray<>(MIN_TABLE_CAPACITY);
+
+    // 只在锁里改
+    private int mTableCount = 0;
+
+    // rehash 前后各加一，奇数代表正在rehash，无锁读miss的时候用来判断要不要加锁再查一次
+    private volatile int mRehashStamp = 0;
 
     private LruNode<K, V> mHotHead = null;
     private LruNode<K, V> mColdHead = null;
 
-    private final ReentrantReadWriteLock mLock = new ReentrantReadWriteLock();
+    private final ReentrantLock mLock = new ReentrantLock();
+
+    @Nullable
+    private final Weigher<V> mWeigher;
+
+    // TinyLFU准入，为null时每个新节点都会被放进来
+    @Nullable
+    private volatile FrequencySketch mSketch;
+
+    // 自适应hotPercent用，key 是最近被淘汰的节点，value 是它被淘汰前有没有被提升过；为null时不自适应
+    @Nullable
+    private LinkedHashMap<K, Boolean> mGhosts;
+
+    // ghost里没被提升过和被提升过的个数
+    private int mRecencyGhostCount = 0;
+    private int mFrequencyGhostCount = 0;
+
+    // traverseTrim 正在问的节点，callback 里remove它时也要记ghost
+    @Nullable
+    private LruNode<K, V> mTraversingNode = null;
+
+    private final ReadBuffer<LruNode<K, V>> mReadBuffer = new ReadBuffer<>();
+
+    // drain 时对每个命中过的节点做的事情，复用一个对象，不用每次drain都new
+    private final ReadBuffer.Consumer<LruNode<K, V>> mDrainConsumer = new ReadBuffer.Consumer<LruNode<K, V>>() {
+        @Override
+        public void accept(@NonNull LruNode<K, V> node) {
+            node.increaseVisitCount();
+
+            FrequencySketch sketch = mSketch;
+
+            if (sketch != null) {
+                sketch.increment(node.hash);
+            }
+        }
+    };
 
     public HotEndLruCache(int maxSize, float hotPercent) {
+        this(maxSize, hotPercent, null);
+    }
+
+    /**
+     * @param weigher 为null时每个节点的size都是1，否则 maxSize 等所有的size都是weight的单位
+     */
+    public HotEndLruCache(int maxSize, float hotPercent, @Nullable Weigher<V> weigher) {
+        mWeigher = weigher;
+
         resize(maxSize, hotPercent);
     }
 
+    @Override
     public void resize(int maxSize, float hotPercent) {
         if (maxSize < HOT_COLD_BOUNDARY || hotPercent < 0.0F || hotPercent >= 1.0F) {
             throw new RuntimeException("HotEndLruCache size parameters error");
         }
 
-        mLock.writeLock().lock();
+        mLock.lock();
 
         try {
+            drainReadBuffer();
+
             mMaxSize = maxSize;
+            mHotPercent = hotPercent;
 
             // maxSize int [2, +∞]
             // maxHotSize in [1, maxSize - 1]
             mMaxHotSize = Math.min(maxSize - 1, Math.max(1, (int) ((float) maxSize * hotPercent)));
 
+            if (mSketch != null) {
+                mSketch.ensureCapacity(maxSize);
+            }
+
             if (mCurSize > mMaxSize) {
                 doTrimTo(mMaxSize);
             }
         } finally {
-            mLock.writeLock().unlock();
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * 打开之后，满了的时候一个新的key只有比要被淘汰的冷端节点访问得更频繁才会被放进来，
+     * 避免一次性的扫描把热数据挤出去
+     */
+    public void enableAdmissionFilter() {
+        mLock.lock();
+
+        try {
+            if (mSketch == null) {
+                FrequencySketch sketch = new FrequencySketch();
+
+                sketch.ensureCapacity(mMaxSize);
+
+                mSketch = sketch;
+            }
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * 打开之后热端的大小会按淘汰的key有没有再回来自动调整，resize 时应该传 hotPercent() 保留调整的结果
+     */
+    public void enableAdaptiveHotPercent() {
+        mLock.lock();
+
+        try {
+            if (mGhosts == null) {
+                mGhosts = newGhosts();
+            }
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @NonNull
+    private LinkedHashMap<K, Boolean> newGhosts() {
+        return new LinkedHashMap<K, Boolean>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Boolean> eldest) {
+                // ghost 不超过当前的节点个数，和ARC里 B1 + B2 <= c 一样
+                if (size() <= Math.max(MIN_GHOST_CAPACITY, mNodeCount)) {
+                    return false;
+                }
+
+                countGhost(eldest.getValue(), -1);
+
+                return true;
+            }
+        };
+    }
+
+    private void countGhost(boolean promoted, int delta) {
+        if (promoted) {
+            mFrequencyGhostCount += delta;
+        } else {
+            mRecencyGhostCount += delta;
+        }
+    }
+
+    /**
+     * 这个函数在被内部调用时一定要放到锁里
+     */
+    private void recordGhost(@NonNull LruNode<K, V> node) {
+        if (mGhosts == null) {
+            return;
+        }
+
+        Boolean exist = mGhosts.put(node.key, node.promoted);
+
+        if (exist != null) {
+            countGhost(exist, -1);
+        }
+
+        countGhost(node.promoted, 1);
+    }
+
+    /**
+     * 一个新key放进来的时候看它是不是刚被淘汰过，按ARC的方式调整热端的大小
+     * 这个函数在被内部调用时一定要放到锁里
+     */
+    private void adaptHotSize(@NonNull K key) {
+        Boolean promoted = mGhosts != null ? mGhosts.remove(key) : null;
+
+        if (promoted == null) {
+            return;
+        }
+
+        countGhost(promoted, -1);
+
+        // 一次调整的节点个数，对面的ghost越多调得越多，再按平均每个节点的size换成size的单位
+        int hitCount = Math.max(1, promoted ? mFrequencyGhostCount : mRecencyGhostCount);
+        int otherCount = promoted ? mRecencyGhostCount : mFrequencyGhostCount;
+
+        int delta = Math.max(1, otherCount / hitCount) * Math.max(1, mCurSize / Math.max(1, mNodeCount));
+
+        int minHotSize = Math.max(1, (int) ((float) mMaxSize * MIN_ADAPTIVE_HOT_PERCENT));
+        int maxHotSize = Math.min(mMaxSize - 1, (int) ((float) mMaxSize * MAX_ADAPTIVE_HOT_PERCENT));
+
+        if (promoted) {
+            mMaxHotSize = Math.min(maxHotSize, mMaxHotSize + delta);
+        } else {
+            mMaxHotSize = Math.max(minHotSize, mMaxHotSize - delta);
+        }
+
+        mHotPercent = (float) mMaxHotSize / mMaxSize;
+
+        // 热端变小了，把多出来的热节点划到冷端
+        while (mHotSize > mMaxHotSize && mColdHead != null) {
+            if (!setNewColdHead(mColdHead.pre)) {
+                break;
+            }
         }
     }
 
     @Nullable
+    @Override
     public V get(@NonNull K key) {
-        LruNode<K, V> node;
+        LruNode<K, V> node = indexGet(key);
 
-        mLock.readLock().lock();
+        if (node == null) {
+            if (mSketch != null) {
+                recordMiss(LruNode.spread(key.hashCode()));
+            }
 
-        if ((node = mLocationMap.get(key)) != null) {
-            node.increaseVisitCount();
+            return null;
+        }
+
+        recordHit(node);
+
+        return node.value;
+    }
+
+    /**
+     * 和 get 一样不加锁，命中的放到 result 里
+     */
+    @Override
+    public void getAll(@NonNull Iterable<K> keys, @NonNull Map<K, V> result) {
+        for (K key : keys) {
+            V value = get(key);
+
+            if (value != null) {
+                result.put(key, value);
+            }
+        }
+    }
+
+    /**
+     * 这里的node有可能刚好被并发remove了，remove时会把visitCount置成负数，drain 的时候会直接跳过
+     */
+    protected final void recordHit(@NonNull LruNode<K, V> node) {
+        if (mReadBuffer.offer(node) == ReadBuffer.FULL && mLock.tryLock()) {
+            try {
+                drainReadBuffer();
+            } finally {
+                mLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * 子类按primitive key查找时用，hash 要和 LruNode.hash 的算法一致
+     */
+    protected final void recordMiss(int hash) {
+        FrequencySketch sketch = mSketch;
+
+        if (sketch != null) {
+            sketch.increment(hash);
+        }
+    }
+
+    /**
+     * 这个函数在被内部调用时一定要放到锁里
+     */
+    private void drainReadBuffer() {
+        mReadBuffer.drainTo(mDrainConsumer);
+    }
+
+    @Override
+    public boolean admit(@NonNull K key, @NonNull V value) {
+        FrequencySketch sketch = mSketch;
+
+        if (sketch == null) {
+            return true;
+        }
+
+        mLock.lock();
+
+        try {
+            drainReadBuffer();
+
+            // 和 putLocked 一样，已经在里面的key只是换个值，不会挤掉别的节点，不用判断
+            return mHotHead == null || indexGet(key) != null ||
+                    admitLocked(sketch, LruNode.spread(key.hashCode()));
+        } finally {
+            mLock.unlock();
         }
+    }
+
+    private boolean admitLocked(@NonNull FrequencySketch sketch, int hash) {
+        return sketch.frequency(hash) > sketch.frequency(peekVictim().hash);
+    }
+
+    /**
+     * doTrimTo 会先把冷端尾部 visitCount >= 2 的节点挪到热端，
+     * 所以真正会被淘汰的是从冷端尾部往前第一个 visitCount < 2 的节点
+     */
+    @NonNull
+    private LruNode<K, V> peekVictim() {
+        LruNode<K, V> coldTail = mHotHead.pre;
+        LruNode<K, V> node = coldTail;
+
+        do {
+            if (node.getVisitCount() < HOT_COLD_BOUNDARY) {
+                return node;
+            }
 
-        mLock.readLock().unlock();
+            node = node.pre;
+        } while (node != coldTail);
 
-        return node == null ? null : node.value;
+        return coldTail;
     }
 
+    @Override
     public boolean put(@NonNull K newKey, @NonNull V newValue) {
         LruNode<K, V> newNode = new LruNode<>(newKey, newValue, getSize(newValue));
 
@@ -77,85 +372,311 @@ public class HotEndLruCache<K, V> {
             return false;
         }
 
-        LruNode<K, V> oldNode;
+        mLock.lock();
+
+        try {
+            drainReadBuffer();
+
+            return putLocked(newNode);
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * 节点在锁外面创建，整批只加一次锁
+     */
+    @Override
+    public void putAll(@NonNull Map<K, V> entries) {
+        ArrayList<LruNode<K, V>> newNodes = new ArrayList<>(entries.size());
+
+        for (Map.Entry<K, V> entry : entries.entrySet()) {
+            newNodes.add(new LruNode<>(entry.getKey(), entry.getValue(), getSize(entry.getValue())));
+        }
 
-        mLock.writeLock().lock();
+        mLock.lock();
 
         try {
-            if ((oldNode = mLocationMap.put(newKey, newNode)) != null) {
-                int lastVisitCount = oldNode.visitCount.get();
+            drainReadBuffer();
+
+            for (LruNode<K, V> newNode : newNodes) {
+                if (newNode.size <= mMaxSize) {
+                    putLocked(newNode);
+                }
+            }
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * 这个函数在被内部调用时一定要放到锁里
+     */
+    private boolean putLocked(@NonNull LruNode<K, V> newNode) {
+        LruNode<K, V> oldNode;
+
+        FrequencySketch sketch = mSketch;
 
-                removeNode(oldNode);
+        if (sketch != null) {
+            sketch.increment(newNode.hash);
 
-                newNode.updateVisitCount(lastVisitCount + 1);
+            // 新的key放进来会淘汰别的节点时，要比被淘汰的节点更热才行
+            if (mHotHead != null && mCurSize + newNode.size > mMaxSize && indexGet(newNode.key) == null &&
+                    !admitLocked(sketch, newNode.hash)) {
+                return false;
             }
+        }
+
+        if ((oldNode = indexPut(newNode)) != null) {
+            int lastVisitCount = oldNode.getVisitCount();
+
+            removeNode(oldNode);
+
+            newNode.updateVisitCount(lastVisitCount + 1);
+            newNode.promoted = oldNode.promoted;
+        } else if (mGhosts != null) {
+            adaptHotSize(newNode.key);
+        }
+
+        mNodeCount++;
+
+        // 有weigher时同一个key的新值可能比旧值大，替换时也要trim；但只有新key才会因为trim被放到冷端
+        boolean trimmed = doTrimTo(mMaxSize - newNode.size) && oldNode == null;
+
+        if (mHotHead != null && mColdHead != null && trimmed) {
+            insertBefore(newNode, mColdHead);
 
-            boolean trimmed = false;
+            // make a new coldHead
+            mColdHead = newNode;
+            newNode.isColdNode = true;
 
-            if (oldNode == null) {
-                trimmed = doTrimTo(mMaxSize - newNode.size);
+            mCurSize += newNode.size;
+        } else {
+            if (mHotHead != null) {
+                insertBefore(newNode, mHotHead);
+            } else {
+                newNode.next = newNode.pre = newNode;
             }
 
-            if (mHotHead != null && mColdHead != null && trimmed) {
-                insertBefore(newNode, mColdHead);
+            boolean isDoubleHead = mColdHead == mHotHead;
+
+            //make a new hotHead
+            mHotHead = newNode;
 
-                // make a new coldHead
-                mColdHead = newNode;
-                newNode.isColdNode = true;
+            mHotSize += newNode.size;
+            mCurSize += newNode.size;
 
-                mCurSize += newNode.size;
+            if (mColdHead == null) {
+                if (mCurSize > mMaxHotSize) {
+                    setNewColdHead(mHotHead.pre);
+                }
             } else {
-                if (mHotHead != null) {
-                    insertBefore(newNode, mHotHead);
+                if (mHotSize > mMaxHotSize) {
+                    if (isDoubleHead && mColdHead.pre != mColdHead) {
+                        mHotSize -= mColdHead.size;
+                        mColdHead.isColdNode = true;
+                    }
+
+                    setNewColdHead(mColdHead.pre);
+                }
+            }
+        }
+
+        return true;
+    }
+
+    // 下面几个是key到节点的索引，子类可以换成自己的实现，比如按primitive key索引
+    // indexGet 不加锁，可能和写操作并发；其他几个一定是在 mLock 里调用的
+
+    @Nullable
+    protected LruNode<K, V> indexGet(@NonNull K key) {
+        int hash = LruNode.spread(key.hashCode());
+        int stamp = mRehashStamp;
+
+        LruNode<K, V> node = findInTable(mTable, key, hash);
+
+        if (node != null || ((stamp & 1) == 0 && stamp == mRehashStamp)) {
+            return node;
+        }
+
+        // 查的过程中正好在rehash，节点可能被挪到了新表的桶里，加锁再查一次
+        mLock.lock();
+
+        try {
+            return findInTable(mTable, key, hash);
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * @return 同一个key之前的节点
+     */
+    @Nullable
+    protected LruNode<K, V> indexPut(@NonNull LruNode<K, V> node) {
+        AtomicReferenceArray<LruNode<K, V>> table = mTable;
+
+        int i = node.hash & (table.length() - 1);
+
+        LruNode<K, V> pre = null;
+
+        for (LruNode<K, V> e = table.get(i); e != null; pre = e, e = e.hashNext) {
+            if (e.hash == node.hash && node.key.equals(e.key)) {
+                // 新节点直接替换旧节点在桶里的位置，旧节点的hashNext不动，正在读它的线程还能继续往后走
+                node.hashNext = e.hashNext;
+
+                if (pre == null) {
+                    table.set(i, node);
                 } else {
-                    newNode.next = newNode.pre = newNode;
+                    pre.hashNext = node;
                 }
 
-                boolean isDoubleHead = mColdHead == mHotHead;
+                return e;
+            }
+        }
+
+        node.hashNext = table.get(i);
+        table.set(i, node);
 
-                //make a new hotHead
-                mHotHead = newNode;
+        if (++mTableCount > table.length() - (table.length() >>> 2)) {
+            rehash();
+        }
 
-                mHotSize += newNode.size;
-                mCurSize += newNode.size;
+        return null;
+    }
 
-                if (mColdHead == null) {
-                    if (mCurSize > mMaxHotSize) {
-                        setNewColdHead(mHotHead.pre);
-                    }
+    @Nullable
+    protected LruNode<K, V> indexRemove(@NonNull K key) {
+        AtomicReferenceArray<LruNode<K, V>> table = mTable;
+
+        int hash = LruNode.spread(key.hashCode());
+        int i = hash & (table.length() - 1);
+
+        LruNode<K, V> pre = null;
+
+        for (LruNode<K, V> e = table.get(i); e != null; pre = e, e = e.hashNext) {
+            if (e.hash == hash && key.equals(e.key)) {
+                // 被删掉的节点的hashNext不清空，原因同上
+                if (pre == null) {
+                    table.set(i, e.hashNext);
                 } else {
-                    if (mHotSize > mMaxHotSize) {
-                        if (isDoubleHead && mColdHead.pre != mColdHead) {
-                            mHotSize -= mColdHead.size;
-                            mColdHead.isColdNode = true;
-                        }
+                    pre.hashNext = e.hashNext;
+                }
 
-                        setNewColdHead(mColdHead.pre);
-                    }
+                mTableCount--;
+
+                return e;
+            }
+        }
+
+        return null;
+    }
+
+    protected void indexClear() {
+        mTable = new AtomicReferenceArray<>(MIN_TABLE_CAPACITY);
+
+        mTableCount = 0;
+    }
+
+    /**
+     * 从 position 开始遍历索引，至少看 maxCount 个节点(一个桶不会拆开)，第一次 position 是0
+     * 表只会翻倍，一个桶只会拆到 i 和 i + 旧容量 两个桶里，所以两段之间扩过容也可以接着按桶的下标往后走，不会漏掉节点
+     *
+     * @return 下一段的 position，-1 时遍历完了或者被 callback 停下来了
+     */
+    protected long indexScan(long position, int maxCount, @NonNull TraverseCallback<K, V> callback) {
+        AtomicReferenceArray<LruNode<K, V>> table = mTable;
+
+        int length = table.length();
+        int bucket = (int) position;
+        int count = 0;
+
+        for (; bucket < length && count < maxCount; ++bucket) {
+            for (LruNode<K, V> e = table.get(bucket); e != null; e = e.hashNext) {
+                count++;
+
+                if (!callback.onTraverse(e.key, e.value)) {
+                    return -1L;
                 }
             }
-        } finally {
-            mLock.writeLock().unlock();
         }
 
-        return true;
+        return bucket < length ? bucket : -1L;
+    }
+
+    @Nullable
+    private static <K, V> LruNode<K, V> findInTable(@NonNull AtomicReferenceArray<LruNode<K, V>> table,
+                                                    @NonNull K key, int hash) {
+        for (LruNode<K, V> e = table.get(hash & (table.length() - 1)); e != null; e = e.hashNext) {
+            if (e.hash == hash && (e.key == key || key.equals(e.key))) {
+                return e;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * 容量翻倍，节点直接挪到新表的桶里，不重新分配任何节点
+     */
+    private void rehash() {
+        AtomicReferenceArray<LruNode<K, V>> oldTable = mTable;
+
+        int newCapacity = oldTable.length() << 1;
+        int mask = newCapacity - 1;
+
+        AtomicReferenceArray<LruNode<K, V>> newTable = new AtomicReferenceArray<>(newCapacity);
+
+        mRehashStamp++;
+
+        for (int i = 0; i < oldTable.length(); ++i) {
+            LruNode<K, V> e = oldTable.get(i);
+
+            while (e != null) {
+                LruNode<K, V> next = e.hashNext;
+
+                int j = e.hash & mask;
+
+                e.hashNext = newTable.get(j);
+                newTable.set(j, e);
+
+                e = next;
+            }
+        }
+
+        mTable = newTable;
+
+        mRehashStamp++;
     }
 
     protected int getSize(@NonNull V value) {
-        return 1;
+        if (mWeigher == null) {
+            return 1;
+        }
+
+        // 每个节点至少是1，这样trim掉的节点个数永远不会超过trim掉的size
+        return Math.max(1, mWeigher.weigh(value));
     }
 
+    @Override
+    public boolean willTrimOnPut(@NonNull K key, @NonNull V value) {
+        return mCurSize + getSize(value) > mMaxSize;
+    }
+
+    @Override
     public boolean trimTo(int targetSize) {
-        mLock.writeLock().lock();
+        mLock.lock();
 
         try {
+            drainReadBuffer();
+
             return doTrimTo(targetSize);
         } finally {
-            mLock.writeLock().unlock();
+            mLock.unlock();
         }
     }
 
-    // 把trim的锁加去掉了，这个函数在被内部调用时一定要放到写锁里
+    // 把trim的锁加去掉了，这个函数在被内部调用时一定要放到锁里
     private boolean doTrimTo(int targetSize) {
         LruNode<K, V> removed = null;
 
@@ -163,8 +684,9 @@ public class HotEndLruCache<K, V> {
             while (true) {
                 LruNode<K, V> coldTail = mHotHead.pre;
 
-                if (coldTail.visitCount.get() >= HOT_COLD_BOUNDARY) {
+                if (coldTail.getVisitCount() >= HOT_COLD_BOUNDARY) {
                     coldTail.updateVisitCount(1);
+                    coldTail.promoted = true;
 
                     setNewHotHead(coldTail);
 
@@ -179,9 +701,12 @@ public class HotEndLruCache<K, V> {
 
                 removed = coldTail;
 
-                mLocationMap.remove(removed.key);
+                indexRemove(removed.key);
+                removed.updateVisitCount(-1);
                 removeNode(removed);
 
+                recordGhost(removed);
+
                 break;
             }
         }
@@ -201,21 +726,16 @@ public class HotEndLruCache<K, V> {
     }
 
     @Nullable
+    @Override
     public final V remove(@NonNull K key) {
         LruNode<K, V> node;
 
-        mLock.writeLock().lock();
+        mLock.lock();
 
         try {
-            if ((node = mLocationMap.remove(key)) != null) {
-                node.updateVisitCount(-1);
-
-                if (node.pre != null) {
-                    removeNode(node);
-                }
-            }
+            node = removeLocked(key);
         } finally {
-            mLock.writeLock().unlock();
+            mLock.unlock();
         }
 
         if (node == null) {
@@ -225,6 +745,48 @@ public class HotEndLruCache<K, V> {
         return node.value;
     }
 
+    @Override
+    public final int removeAll(@NonNull Collection<K> keys) {
+        int count = 0;
+
+        mLock.lock();
+
+        try {
+            for (K key : keys) {
+                if (removeLocked(key) != null) {
+                    count++;
+                }
+            }
+        } finally {
+            mLock.unlock();
+        }
+
+        return count;
+    }
+
+    /**
+     * 这个函数在被内部调用时一定要放到锁里
+     */
+    @Nullable
+    private LruNode<K, V> removeLocked(@NonNull K key) {
+        LruNode<K, V> node = indexRemove(key);
+
+        if (node != null) {
+            node.updateVisitCount(-1);
+
+            if (node.pre != null) {
+                removeNode(node);
+            }
+
+            // traverseTrim 的callback里remove的节点等于是被淘汰了
+            if (node == mTraversingNode) {
+                recordGhost(node);
+            }
+        }
+
+        return node;
+    }
+
     private void removeNode(@NonNull LruNode<K, V> node) {
         if (node.next == node) {
             //这里就是指最后一个node
@@ -244,6 +806,7 @@ public class HotEndLruCache<K, V> {
         }
 
         mCurSize -= node.size;
+        mNodeCount--;
 
         if (!node.isColdNode) {
             mHotSize -= node.size;
@@ -281,10 +844,6 @@ public class HotEndLruCache<K, V> {
         return true;
     }
 
-    public interface TraverseCallback<K, V> {
-        boolean onTraverse(@NonNull K key, @NonNull V value);
-    }
-
     /**
      * 这里的逻辑有点绕，因为逻辑是这样的：
      * 1、因为外部缓存的两层缓存设计，我们永远也用不到LruCache自带的trim，所以我们需要自己接管trim逻辑
@@ -294,22 +853,43 @@ public class HotEndLruCache<K, V> {
      * <p>
      * 所以，我们在这里替换了原有算法里对visitCount的判断来移动hot指针
      */
+    @Override
     public int traverseTrim(int maxCount, @NonNull TraverseCallback<K, V> callback) {
-        mLock.writeLock().lock();
+        return traverseTrim(maxCount, -1, callback);
+    }
+
+    /**
+     * @param targetSize size 降到这个值以下时就停止traverse
+     */
+    @Override
+    public int traverseTrim(int maxCount, int targetSize, @NonNull TraverseCallback<K, V> callback) {
+        mLock.lock();
 
         int count = 0;
 
         try {
+            drainReadBuffer();
+
             if (mHotHead == null) {
                 return 0;
             }
 
             LruNode<K, V> node = mHotHead.pre;  // cold tail
 
-            for (; count < maxCount; ++count) {
+            for (; count < maxCount && mCurSize > targetSize; ++count) {
                 // 替换了 node.visitCount >= HOT_COLD_BOUNDARY的判断
-                //后续可以把这个判断加在前面 node.visitCount.get() >= HOT_COLD_BOUNDARY ||
-                if (!callback.onTraverse(node.key, node.value)) {
+                //后续可以把这个判断加在前面 node.getVisitCount() >= HOT_COLD_BOUNDARY ||
+                mTraversingNode = node;
+
+                boolean canTrim;
+
+                try {
+                    canTrim = callback.onTraverse(node.key, node.value);
+                } finally {
+                    mTraversingNode = null;
+                }
+
+                if (!canTrim) {
                     node.updateVisitCount(1);
 
                     setNewHotHead(node);
@@ -330,38 +910,115 @@ public class HotEndLruCache<K, V> {
                 node = pre;
             }
         } finally {
-            mLock.writeLock().unlock();
+            mLock.unlock();
         }
 
         return count;
     }
 
+    @Override
+    public boolean forEach(@NonNull TraverseCallback<K, V> callback) {
+        mLock.lock();
+
+        try {
+            LruNode<K, V> node = mHotHead;
+
+            if (node == null) {
+                return true;
+            }
+
+            do {
+                if (!callback.onTraverse(node.key, node.value)) {
+                    return false;
+                }
+
+                node = node.next;
+            } while (node != mHotHead);
+
+            return true;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * 按索引的位置分段遍历，每一段只加一次锁
+     */
+    @NonNull
+    @Override
+    public Cursor<K, V> cursor() {
+        return new Cursor<K, V>() {
+            private long mPosition = 0L;
+
+            @Override
+            public boolean next(int maxCount, @NonNull TraverseCallback<K, V> callback) {
+                if (mPosition < 0L) {
+                    return false;
+                }
+
+                mLock.lock();
+
+                try {
+                    mPosition = indexScan(mPosition, maxCount, callback);
+                } finally {
+                    mLock.unlock();
+                }
+
+                return mPosition >= 0L;
+            }
+        };
+    }
+
+    /**
+     * O(1)：索引换一张新的空表，热冷环直接放掉，旧的节点整体交给GC
+     */
+    @Override
     public void clear() {
-        mLock.writeLock().lock();
+        mLock.lock();
 
-        mLocationMap.clear();
+        // 把还没处理的命中记录清掉，不再引用已经被clear的节点
+        drainReadBuffer();
+
+        indexClear();
 
         setNewHotHead(null);
         setNewColdHead(null);
 
         mCurSize = 0;
         mHotSize = 0;
+        mNodeCount = 0;
+
+        // 换新的比 clear 快，LinkedHashMap.clear 要把整张表扫一遍
+        if (mGhosts != null) {
+            mGhosts = newGhosts();
 
-        mLock.writeLock().unlock();
+            mRecencyGhostCount = 0;
+            mFrequencyGhostCount = 0;
+        }
+
+        mLock.unlock();
     }
 
+    @Override
     public final int size() {
         return mCurSize;
     }
 
+    @Override
     public final int maxSize() {
         return mMaxSize;
     }
 
+    @Override
     public final int maxHotSize() {
         return mMaxHotSize;
     }
 
+    @Override
+    public final float hotPercent() {
+        return mHotPercent;
+    }
+
     @NonNull
     @Override
     public String toString() {
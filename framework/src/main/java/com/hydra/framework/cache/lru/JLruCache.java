@@ -0,0 +1,100 @@
+package com.hydra.framework.cache.lru;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Created by Hydra.
+ * <p>
+ * JCache 对底层LRU的依赖，HotEndLruCache、SegmentedHotEndLruCache 和 PolicyLruCache 的几个淘汰策略都实现了这个接口
+ * size 的单位由实现里的 getSize 决定，默认一个节点是1
+ */
+public interface JLruCache<K, V> {
+
+    void resize(int maxSize, float hotPercent);
+
+    @Nullable
+    V get(@NonNull K key);
+
+    boolean put(@NonNull K key, @NonNull V value);
+
+    @Nullable
+    V remove(@NonNull K key);
+
+    /**
+     * 不加锁，命中的key和value放到 result 里
+     */
+    void getAll(@NonNull Iterable<K> keys, @NonNull Map<K, V> result);
+
+    /**
+     * 整批只加一次锁
+     */
+    void putAll(@NonNull Map<K, V> entries);
+
+    /**
+     * 整批只加一次锁
+     *
+     * @return 真正删掉的个数
+     */
+    int removeAll(@NonNull Collection<K> keys);
+
+    /**
+     * @return put这个节点时会不会触发trim
+     */
+    boolean willTrimOnPut(@NonNull K key, @NonNull V value);
+
+    /**
+     * @return 满了的时候这个新节点能不能挤掉冷端的节点，没有打开准入判断或者key已经在cache里时永远是true
+     * (已经在里面的key被拒绝的话，新值放不进来，旧值还留在里面)
+     */
+    boolean admit(@NonNull K key, @NonNull V value);
+
+    boolean trimTo(int targetSize);
+
+    int traverseTrim(int maxCount, @NonNull TraverseCallback<K, V> callback);
+
+    int traverseTrim(int maxCount, int targetSize, @NonNull TraverseCallback<K, V> callback);
+
+    /**
+     * 只读地遍历所有节点，不改变淘汰顺序，也不算访问；callback 返回false时停止，里面不能修改这个cache
+     *
+     * @return false 时是被 callback 停下来的
+     */
+    boolean forEach(@NonNull TraverseCallback<K, V> callback);
+
+    /**
+     * 分段遍历，每次 Cursor.next 只看一段节点，不会像 forEach 那样整个遍历期间一直占着锁
+     * 遍历期间一直在cache里的节点至少会被看到一次，也可能看到两次；期间放进来或者删掉的节点可能看到也可能看不到
+     */
+    @NonNull
+    Cursor<K, V> cursor();
+
+    void clear();
+
+    int size();
+
+    int maxSize();
+
+    int maxHotSize();
+
+    /**
+     * @return 当前的hotPercent，自适应的实现里会和 resize 时传进来的不一样，resize 时传这个值可以保留调整的结果
+     */
+    float hotPercent();
+
+    interface TraverseCallback<K, V> {
+        boolean onTraverse(@NonNull K key, @NonNull V value);
+    }
+
+    interface Cursor<K, V> {
+        /**
+         * 往后看一段，大约 maxCount 个节点；callback 可能是在锁里调用的，里面不能修改这个cache，返回false时停止遍历
+         *
+         * @return false 时已经遍历完了
+         */
+        boolean next(int maxCount, @NonNull TraverseCallback<K, V> callback);
+    }
+}
@@ -0,0 +1,221 @@
+package com.hydra.framework.cache.lru;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Created by Hydra.
+ * 算法参考：Jiang & Zhang, LIRS: An Efficient Low Inter-reference Recency Set Replacement Policy
+ * <p>
+ * 按两次访问之间的间隔(IRR)分冷热：LIR 是间隔短的热节点，HIR 是间隔长的冷节点，只有常驻的HIR才会被淘汰
+ * 1、栈S 按最近访问的顺序放 LIR、常驻HIR 和非常驻HIR(ghost)，栈底永远是LIR
+ * 2、队列Q 放所有常驻HIR，淘汰从Q的尾部开始
+ * 3、在S里的HIR再被访问说明它的间隔比栈底的LIR短，升成LIR，栈底的LIR降成HIR
+ * <p>
+ * LIR 的大小是 maxSize * hotPercent，S 里的ghost总大小不超过 maxSize
+ */
+public class LirsLruCache<K, V> extends PolicyLruCache<K, V> {
+
+    private static final int STATUS_LIR = 0;
+    private static final int STATUS_HIR = 1;
+    private static final int STATUS_HIR_GHOST = 2;
+
+    private final PolicyList<K, V> mStack = new PolicyList<>(false);
+    private final PolicyList<K, V> mQueue = new PolicyList<>(true);
+
+    private int mLirSize = 0;
+    private int mGhostSize = 0;
+
+    public LirsLruCache(int maxSize, float hotPercent) {
+        this(maxSize, hotPercent, null);
+    }
+
+    public LirsLruCache(int maxSize, float hotPercent, @Nullable Weigher<V> weigher) {
+        super(maxSize, hotPercent, weigher);
+    }
+
+    @Override
+    public int maxHotSize() {
+        return Math.min(mMaxSize - 1, Math.max(1, (int) ((float) mMaxSize * mHotPercent)));
+    }
+
+    @Override
+    void onAccess(@NonNull PolicyNode<K, V> node) {
+        if (node.status == STATUS_LIR) {
+            mStack.moveToFirst(node);
+
+            pruneStack();
+
+            return;
+        }
+
+        // 常驻的HIR
+        if (mStack.contains(node)) {
+            mStack.moveToFirst(node);
+            mQueue.remove(node);
+
+            node.status = STATUS_LIR;
+            mLirSize += node.size;
+
+            demoteLir(node);
+        } else {
+            mStack.addFirst(node);
+            mQueue.moveToFirst(node);
+        }
+    }
+
+    /**
+     * LIR 超过上限时把栈底的LIR降成常驻HIR
+     *
+     * @param except 刚升上来的节点不降，避免一个很大的节点刚升上来就被降掉
+     */
+    private void demoteLir(@Nullable PolicyNode<K, V> except) {
+        int maxHotSize = maxHotSize();
+
+        PolicyNode<K, V> bottom;
+
+        while (mLirSize > maxHotSize && (bottom = mStack.last()) != null && bottom != except) {
+            mStack.remove(bottom);
+
+            bottom.status = STATUS_HIR;
+            mLirSize -= bottom.size;
+
+            mQueue.addFirst(bottom);
+
+            pruneStack();
+        }
+    }
+
+    /**
+     * 把栈底的HIR都拿掉，保证栈底是LIR
+     */
+    private void pruneStack() {
+        PolicyNode<K, V> bottom;
+
+        while ((bottom = mStack.last()) != null && bottom.status != STATUS_LIR) {
+            mStack.remove(bottom);
+
+            if (bottom.status == STATUS_HIR_GHOST) {
+                removeGhost(bottom);
+            }
+        }
+    }
+
+    private void removeGhost(@NonNull PolicyNode<K, V> ghost) {
+        mGhosts.remove(ghost.key);
+
+        mGhostSize -= ghost.size;
+    }
+
+    @Override
+    void onAdmit(@NonNull PolicyNode<K, V> node) {
+        PolicyNode<K, V> ghost = mGhosts.get(node.key);
+
+        if (mLirSize + node.size <= maxHotSize()) {
+            // 刚开始LIR还没满，直接当LIR
+            node.status = STATUS_LIR;
+        } else if (ghost != null) {
+            // 还在S里的ghost又被访问，说明间隔比栈底的LIR短
+            node.status = STATUS_LIR;
+        } else {
+            node.status = STATUS_HIR;
+        }
+
+        if (ghost != null) {
+            mStack.remove(ghost);
+
+            removeGhost(ghost);
+        }
+    }
+
+    @Override
+    void onLink(@NonNull PolicyNode<K, V> node) {
+        mStack.addFirst(node);
+
+        if (node.status == STATUS_LIR) {
+            mLirSize += node.size;
+
+            demoteLir(node);
+        } else {
+            mQueue.addFirst(node);
+        }
+    }
+
+    @NonNull
+    @Override
+    PolicyNode<K, V> selectVictim() {
+        PolicyNode<K, V> victim = mQueue.last();
+
+        // 全是LIR的时候只能淘汰栈底的LIR
+        return victim != null ? victim : mStack.last();
+    }
+
+    @Override
+    void onEvict(@NonNull PolicyNode<K, V> node) {
+        if (node.status == STATUS_LIR || !mStack.contains(node)) {
+            onRemove(node);
+
+            return;
+        }
+
+        // 还在S里的常驻HIR变成ghost，留在S里原来的位置
+        mQueue.remove(node);
+
+        node.status = STATUS_HIR_GHOST;
+
+        mGhosts.put(node.key, node);
+        mGhostSize += node.size;
+
+        trimGhosts();
+    }
+
+    /**
+     * ghost只能从S里拿掉，从栈底往上找，最老的先拿掉
+     */
+    private void trimGhosts() {
+        PolicyNode<K, V> node = mStack.last();
+
+        while (mGhostSize > mMaxSize && node != null) {
+            PolicyNode<K, V> pre = mStack.previous(node);
+
+            if (node.status == STATUS_HIR_GHOST) {
+                mStack.remove(node);
+
+                removeGhost(node);
+            }
+
+            node = pre;
+        }
+    }
+
+    @Override
+    void onRemove(@NonNull PolicyNode<K, V> node) {
+        if (mStack.contains(node)) {
+            mStack.remove(node);
+        }
+
+        if (node.status == STATUS_LIR) {
+            mLirSize -= node.size;
+        } else {
+            mQueue.remove(node);
+        }
+
+        pruneStack();
+    }
+
+    @Override
+    void onResize() {
+        demoteLir(null);
+
+        trimGhosts();
+    }
+
+    @Override
+    void onClear() {
+        mStack.clear();
+        mQueue.clear();
+
+        mLirSize = 0;
+        mGhostSize = 0;
+    }
+}
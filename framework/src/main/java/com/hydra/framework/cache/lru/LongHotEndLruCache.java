@@ -0,0 +1,284 @@
+package com.hydra.framework.cache.lru;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Created by Hydra.
+ * <p>
+ * key是long的HotEndLruCache，热冷环的算法完全一样，只是把节点串成的hash表换成了按long开放寻址的索引
+ * get(long) 命中时没有装箱，也没有hash对象的equals；put时key只会被装箱一次存在节点上
+ * <p>
+ * 索引的写操作都在锁里，读不加锁：删除只留墓碑不移动，扩容时建一张新表再整体替换，
+ * 所以读到的永远是一张完整的表，最多只是看不到还没发布的写
+ */
+@SuppressWarnings({"unchecked", "rawtypes"})
+public class LongHotEndLruCache<V> extends HotEndLruCache<Long, V> {
+
+    private static final int MIN_CAPACITY = 16;
+
+    private static final LruNode TOMBSTONE = new LruNode<>(0L, new Object(), 0);
+
+    private static final class Table<V> {
+
+        final long[] keys;
+
+        final LruNode<Long, V>[] nodes;
+
+        Table(int capacity) {
+            keys = new long[capacity];
+            nodes = new LruNode[capacity];
+        }
+    }
+
+    private volatile Table<V> mTable = new Table<>(MIN_CAPACITY);
+
+    // 下面两个只在锁里改，used 是有效节点加上墓碑的个数
+    private int mLiveCount = 0;
+    private int mUsedCount = 0;
+
+    // 每次换表加一，只在锁里改；换表之后节点的槽位全变了，分段遍历要从头开始
+    private int mTableVersion = 0;
+
+    public LongHotEndLruCache(int maxSize, float hotPercent) {
+        this(maxSize, hotPercent, null);
+    }
+
+    public LongHotEndLruCache(int maxSize, float hotPercent, @Nullable Weigher<V> weigher) {
+        super(maxSize, hotPercent, weigher);
+    }
+
+    @Nullable
+    public V get(long key) {
+        LruNode<Long, V> node = findNode(mTable, key);
+
+        if (node == null) {
+            recordMiss(LruNode.spread((int) (key ^ (key >>> 32))));
+
+            return null;
+        }
+
+        recordHit(node);
+
+        return node.value;
+    }
+
+    public boolean put(long key, @NonNull V value) {
+        return put(Long.valueOf(key), value);
+    }
+
+    @Nullable
+    public V remove(long key) {
+        return remove(Long.valueOf(key));
+    }
+
+    @Nullable
+    @Override
+    protected LruNode<Long, V> indexGet(@NonNull Long key) {
+        return findNode(mTable, key);
+    }
+
+    @Nullable
+    @Override
+    protected LruNode<Long, V> indexPut(@NonNull LruNode<Long, V> node) {
+        // 装载因子不超过0.5，保证探测一定能遇到空位
+        if ((mUsedCount + 1) * 2 > mTable.keys.length) {
+            rehash();
+        }
+
+        Table<V> table = mTable;
+
+        long[] keys = table.keys;
+        LruNode<Long, V>[] nodes = table.nodes;
+
+        long key = node.key;
+
+        int mask = keys.length - 1;
+        int i = slotOf(key, mask);
+        int tombstone = -1;
+
+        LruNode<Long, V> exist;
+
+        while ((exist = nodes[i]) != null) {
+            if (exist == TOMBSTONE) {
+                if (tombstone < 0) {
+                    tombstone = i;
+                }
+            } else if (keys[i] == key) {
+                nodes[i] = node;
+
+                return exist;
+            }
+
+            i = (i + 1) & mask;
+        }
+
+        if (tombstone >= 0) {
+            i = tombstone;
+        } else {
+            mUsedCount++;
+        }
+
+        // 先写key再写node，读的时候看到node之后还会再用node自己的key校验一次
+        keys[i] = key;
+        nodes[i] = node;
+
+        mLiveCount++;
+
+        return null;
+    }
+
+    @Nullable
+    @Override
+    protected LruNode<Long, V> indexRemove(@NonNull Long key) {
+        Table<V> table = mTable;
+
+        int i = slotIndex(table, key);
+
+        if (i < 0) {
+            return null;
+        }
+
+        LruNode<Long, V> node = table.nodes[i];
+
+        table.nodes[i] = TOMBSTONE;
+
+        mLiveCount--;
+
+        return node;
+    }
+
+    @Override
+    protected void indexClear() {
+        mTable = new Table<>(MIN_CAPACITY);
+
+        mLiveCount = 0;
+        mUsedCount = 0;
+
+        mTableVersion++;
+    }
+
+    /**
+     * position 的高32位是表的版本，低32位是槽位；两段之间换过表就从头再来，之前看过的节点会再看一遍
+     */
+    @Override
+    protected long indexScan(long position, int maxCount, @NonNull TraverseCallback<Long, V> callback) {
+        LruNode<Long, V>[] nodes = mTable.nodes;
+
+        int slot = (int) (position >>> 32) == mTableVersion ? (int) position : 0;
+        int count = 0;
+
+        for (; slot < nodes.length && count < maxCount; ++slot) {
+            LruNode<Long, V> node = nodes[slot];
+
+            if (node == null || node == TOMBSTONE) {
+                continue;
+            }
+
+            count++;
+
+            if (!callback.onTraverse(node.key, node.value)) {
+                return -1L;
+            }
+        }
+
+        return slot < nodes.length ? ((long) mTableVersion << 32) | slot : -1L;
+    }
+
+    /**
+     * 按当前的有效节点个数重建一张新表，顺便把墓碑清掉，新表建好之后才发布
+     */
+    private void rehash() {
+        int capacity = MIN_CAPACITY;
+
+        while (capacity < (mLiveCount + 1) * 4) {
+            capacity <<= 1;
+        }
+
+        Table<V> oldTable = mTable;
+        Table<V> newTable = new Table<>(capacity);
+
+        int mask = capacity - 1;
+
+        for (LruNode<Long, V> node : oldTable.nodes) {
+            if (node == null || node == TOMBSTONE) {
+                continue;
+            }
+
+            long key = node.key;
+
+            int i = slotOf(key, mask);
+
+            while (newTable.nodes[i] != null) {
+                i = (i + 1) & mask;
+            }
+
+            newTable.keys[i] = key;
+            newTable.nodes[i] = node;
+        }
+
+        mTable = newTable;
+
+        mUsedCount = mLiveCount;
+
+        mTableVersion++;
+    }
+
+    private static int slotOf(long key, int mask) {
+        long h = key * 0x9E3779B97F4A7C15L;
+
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    /**
+     * 只在锁里调用
+     */
+    private static int slotIndex(@NonNull Table<?> table, long key) {
+        long[] keys = table.keys;
+        LruNode[] nodes = table.nodes;
+
+        int mask = keys.length - 1;
+        int i = slotOf(key, mask);
+
+        LruNode node;
+
+        while ((node = nodes[i]) != null) {
+            if (node != TOMBSTONE && keys[i] == key) {
+                return i;
+            }
+
+            i = (i + 1) & mask;
+        }
+
+        return -1;
+    }
+
+    /**
+     * 不加锁，节点只读一次，避免读到刚被换成墓碑的槽位
+     */
+    @Nullable
+    private static <V> LruNode<Long, V> findNode(@NonNull Table<V> table, long key) {
+        long[] keys = table.keys;
+        LruNode<Long, V>[] nodes = table.nodes;
+
+        int mask = keys.length - 1;
+        int i = slotOf(key, mask);
+
+        for (int probe = 0; probe <= mask; ++probe) {
+            LruNode<Long, V> node = nodes[i];
+
+            if (node == null) {
+                return null;
+            }
+
+            // keys 和 nodes 不是原子写的，最后以node自己的key为准
+            if (node != TOMBSTONE && keys[i] == key && node.key == key) {
+                return node;
+            }
+
+            i = (i + 1) & mask;
+        }
+
+        return null;
+    }
+}
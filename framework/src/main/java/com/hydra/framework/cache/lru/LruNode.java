@@ -2,10 +2,12 @@ package com.hydra.framework.cache.lru;
 
 import androidx.annotation.NonNull;
 
-import java.util.concurrent.atomic.AtomicInteger;
-
 /**
  * Created by Hydra.
+ * <p>
+ * 一个节点同时是热冷环上的节点和hash表里的节点(hashNext)，每个缓存的值只对应这一个对象
+ * <p>
+ * visitCount 只在写锁里改，命中时先记到 ReadBuffer 里，drain 的时候再加
  */
 public class LruNode<K, V> {
 
@@ -15,47 +17,58 @@ public class LruNode<K, V> {
     @NonNull
     public final V value;
 
+    public final int hash;
+
     public LruNode<K, V> pre;
 
     public LruNode<K, V> next;
 
+    // hash表同一个桶里的下一个节点，无锁读的时候会读这个字段，所以是volatile的
+    volatile LruNode<K, V> hashNext;
+
     public final int size;
 
     // 默认是1
-    public final AtomicInteger visitCount = new AtomicInteger(1);
+    private volatile int visitCount = 1;
 
     public boolean isColdNode = false;
 
+    // 在冷端尾部因为被访问过多次而提升到热端过，自适应hotPercent时用来区分淘汰的是"近期"节点还是"频繁"节点
+    boolean promoted = false;
+
     public LruNode(@NonNull K key, @NonNull V value, int size) {
         this.key = key;
         this.value = value;
+        this.hash = spread(key.hashCode());
         this.size = size;
     }
 
-    public void updateVisitCount(int newCount) {
-        visitCount.set(newCount);
+    static int spread(int h) {
+        return h ^ (h >>> 16);
     }
 
-    public void increaseVisitCount() {
-        int current;
-        int nextFlag;
-
-        do {
-            current = visitCount.get();
+    public int getVisitCount() {
+        return visitCount;
+    }
 
-            //visitCount < 0 代表此节点已经被remove
-            if (current < 0) {
-                break;
-            }
+    public void updateVisitCount(int newCount) {
+        visitCount = newCount;
+    }
 
-            nextFlag = current + 1;
-        } while (!visitCount.compareAndSet(current, nextFlag));
+    /**
+     * 只在锁里调用
+     */
+    public void increaseVisitCount() {
+        //visitCount < 0 代表此节点已经被remove
+        if (visitCount >= 0) {
+            visitCount++;
+        }
     }
 
     @NonNull
     public String toString() {
         return "LruNode@" + this.hashCode() + "[key:" + this.key + ", value:" +
-                this.value + ", visitCount:" + this.visitCount.get() + ", size:" +
+                this.value + ", visitCount:" + this.visitCount + ", size:" +
                 this.size + ", isColdNode:" + this.isColdNode + "]";
     }
 }
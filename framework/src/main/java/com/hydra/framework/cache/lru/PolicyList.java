@@ -0,0 +1,130 @@
+package com.hydra.framework.cache.lru;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Created by Hydra.
+ * <p>
+ * 带哨兵的双向链表，first 是最近用过的一端，last 是最久没用的一端，weight 是链表里所有节点size的和
+ * <p>
+ * queue 为true时用节点的 queuePre/queueNext，这样同一个节点可以同时在两个链表里
+ * 只在 PolicyLruCache 的锁里用
+ */
+final class PolicyList<K, V> {
+
+    private final PolicyNode<K, V> mHead = new PolicyNode<>(null, null, 0);
+
+    private final boolean mQueue;
+
+    private int mWeight = 0;
+
+    private int mCount = 0;
+
+    PolicyList(boolean queue) {
+        mQueue = queue;
+
+        setNext(mHead, mHead);
+        setPre(mHead, mHead);
+    }
+
+    private PolicyNode<K, V> next(@NonNull PolicyNode<K, V> node) {
+        return mQueue ? node.queueNext : node.next;
+    }
+
+    private PolicyNode<K, V> pre(@NonNull PolicyNode<K, V> node) {
+        return mQueue ? node.queuePre : node.pre;
+    }
+
+    private void setNext(@NonNull PolicyNode<K, V> node, PolicyNode<K, V> next) {
+        if (mQueue) {
+            node.queueNext = next;
+        } else {
+            node.next = next;
+        }
+    }
+
+    private void setPre(@NonNull PolicyNode<K, V> node, PolicyNode<K, V> pre) {
+        if (mQueue) {
+            node.queuePre = pre;
+        } else {
+            node.pre = pre;
+        }
+    }
+
+    boolean contains(@NonNull PolicyNode<K, V> node) {
+        return pre(node) != null;
+    }
+
+    void addFirst(@NonNull PolicyNode<K, V> node) {
+        PolicyNode<K, V> first = next(mHead);
+
+        setPre(node, mHead);
+        setNext(node, first);
+
+        setPre(first, node);
+        setNext(mHead, node);
+
+        mWeight += node.size;
+        mCount++;
+    }
+
+    void remove(@NonNull PolicyNode<K, V> node) {
+        PolicyNode<K, V> pre = pre(node);
+        PolicyNode<K, V> next = next(node);
+
+        setNext(pre, next);
+        setPre(next, pre);
+
+        setPre(node, null);
+        setNext(node, null);
+
+        mWeight -= node.size;
+        mCount--;
+    }
+
+    void moveToFirst(@NonNull PolicyNode<K, V> node) {
+        remove(node);
+        addFirst(node);
+    }
+
+    @Nullable
+    PolicyNode<K, V> last() {
+        PolicyNode<K, V> last = pre(mHead);
+
+        return last == mHead ? null : last;
+    }
+
+    /**
+     * @return node 往first方向的前一个节点，已经是first时返回null
+     */
+    @Nullable
+    PolicyNode<K, V> previous(@NonNull PolicyNode<K, V> node) {
+        PolicyNode<K, V> pre = pre(node);
+
+        return pre == mHead ? null : pre;
+    }
+
+    /**
+     * 只把哨兵接回自己，旧的节点不再一个个拆开：clear 之后没有地方再引用它们，整条链一起被GC
+     */
+    void clear() {
+        setNext(mHead, mHead);
+        setPre(mHead, mHead);
+
+        mWeight = 0;
+        mCount = 0;
+    }
+
+    boolean isEmpty() {
+        return mCount == 0;
+    }
+
+    int weight() {
+        return mWeight;
+    }
+
+    int count() {
+        return mCount;
+    }
+}
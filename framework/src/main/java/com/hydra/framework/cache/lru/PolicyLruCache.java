@@ -0,0 +1,518 @@
+package com.hydra.framework.cache.lru;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Created by Hydra.
+ * <p>
+ * ARC、LIRS、SLRU、CLOCK-Pro 这些淘汰策略共用的部分：
+ * 1、索引是 ConcurrentHashMap，get 不加锁，命中时和 HotEndLruCache 一样只记到 ReadBuffer 里，drain 的时候再交给策略
+ * 2、put、remove、trim、resize 都在 mLock 里，策略只需要实现下面几个回调，回调都是在锁里调用的
+ * 3、traverseTrim 按策略给的淘汰顺序一个个问 callback，callback 返回false的节点当作被访问了一次
+ * <p>
+ * 被淘汰的节点可以留在策略自己的链表里当作ghost(value为null)，只留key和size，用 mGhosts 按key找回来
+ * <p>
+ * clear 是 O(1) 的：换一个新的索引，generation 加一，旧的节点不再一个个处理，整体交给GC
+ */
+public abstract class PolicyLruCache<K, V> implements JLruCache<K, V> {
+
+    protected final ReentrantLock mLock = new ReentrantLock();
+
+    // clear 时整个换掉
+    private volatile ConcurrentHashMap<K, PolicyNode<K, V>> mIndex = new ConcurrentHashMap<>();
+
+    // 策略自己的淘汰记录，只在锁里用
+    HashMap<K, PolicyNode<K, V>> mGhosts = new HashMap<>();
+
+    // 每次 clear 加一，只在锁里用
+    private int mGeneration = 0;
+
+    @Nullable
+    private final Weigher<V> mWeigher;
+
+    private final ReadBuffer<PolicyNode<K, V>> mReadBuffer = new ReadBuffer<>();
+
+    private final ReadBuffer.Consumer<PolicyNode<K, V>> mDrainConsumer = new ReadBuffer.Consumer<PolicyNode<K, V>>() {
+        @Override
+        public void accept(@NonNull PolicyNode<K, V> node) {
+            // 已经被淘汰、remove或者clear掉的节点直接跳过
+            if (node.isResident() && node.generation == mGeneration) {
+                onAccess(node);
+            }
+        }
+    };
+
+    int mCurSize = 0;
+    int mMaxSize = 0;
+
+    float mHotPercent = 0.0F;
+
+    // traverseTrim 正在问的节点，callback 里remove它时按淘汰处理，策略可以记ghost
+    @Nullable
+    private PolicyNode<K, V> mTraversingNode = null;
+
+    protected PolicyLruCache(int maxSize, float hotPercent, @Nullable Weigher<V> weigher) {
+        checkSizeParameters(maxSize, hotPercent);
+
+        mWeigher = weigher;
+
+        mMaxSize = maxSize;
+        mHotPercent = hotPercent;
+    }
+
+    private static void checkSizeParameters(int maxSize, float hotPercent) {
+        if (maxSize < 2 || hotPercent < 0.0F || hotPercent >= 1.0F) {
+            throw new RuntimeException("PolicyLruCache size parameters error");
+        }
+    }
+
+    // 下面是策略的回调，全部在 mLock 里调用
+
+    /**
+     * 命中了一个常驻节点
+     */
+    abstract void onAccess(@NonNull PolicyNode<K, V> node);
+
+    /**
+     * 一个新节点要放进来，这时还没有淘汰也没有加到链表里，策略可以在这里查ghost、调整自己的参数、决定节点的status
+     */
+    abstract void onAdmit(@NonNull PolicyNode<K, V> node);
+
+    /**
+     * 把 onAdmit 过的节点加到策略自己的链表里
+     */
+    abstract void onLink(@NonNull PolicyNode<K, V> node);
+
+    /**
+     * @return 下一个要淘汰的常驻节点，size 不为0时一定不能返回null
+     */
+    @NonNull
+    abstract PolicyNode<K, V> selectVictim();
+
+    /**
+     * 节点被淘汰了，调用完之后它的value会被置成null，策略可以把它留下来当ghost
+     */
+    abstract void onEvict(@NonNull PolicyNode<K, V> node);
+
+    /**
+     * 节点被remove或者被同key的新节点替换，直接从链表里拿掉，不记ghost
+     */
+    abstract void onRemove(@NonNull PolicyNode<K, V> node);
+
+    /**
+     * traverseTrim 时 callback 不让淘汰这个节点，默认当作访问了一次
+     */
+    void onRetain(@NonNull PolicyNode<K, V> node) {
+        onAccess(node);
+    }
+
+    /**
+     * maxSize 或者 hotPercent 变了
+     */
+    void onResize() {
+    }
+
+    abstract void onClear();
+
+    @Override
+    public void resize(int maxSize, float hotPercent) {
+        checkSizeParameters(maxSize, hotPercent);
+
+        mLock.lock();
+
+        try {
+            drainReadBuffer();
+
+            mMaxSize = maxSize;
+            mHotPercent = hotPercent;
+
+            onResize();
+
+            evictTo(mMaxSize);
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Nullable
+    @Override
+    public V get(@NonNull K key) {
+        PolicyNode<K, V> node = mIndex.get(key);
+
+        if (node == null) {
+            return null;
+        }
+
+        // 拿到node之后它可能刚好被淘汰了
+        V value = node.value;
+
+        if (value == null) {
+            return null;
+        }
+
+        if (mReadBuffer.offer(node) == ReadBuffer.FULL && mLock.tryLock()) {
+            try {
+                drainReadBuffer();
+            } finally {
+                mLock.unlock();
+            }
+        }
+
+        return value;
+    }
+
+    /**
+     * 这个函数在被内部调用时一定要放到锁里
+     */
+    private void drainReadBuffer() {
+        mReadBuffer.drainTo(mDrainConsumer);
+    }
+
+    @Override
+    public boolean put(@NonNull K key, @NonNull V value) {
+        PolicyNode<K, V> newNode = new PolicyNode<>(key, value, getSize(value));
+
+        if (newNode.size > mMaxSize) {
+            return false;
+        }
+
+        mLock.lock();
+
+        try {
+            drainReadBuffer();
+
+            putLocked(newNode);
+        } finally {
+            mLock.unlock();
+        }
+
+        return true;
+    }
+
+    /**
+     * 节点在锁外面创建，整批只加一次锁
+     */
+    @Override
+    public void putAll(@NonNull Map<K, V> entries) {
+        ArrayList<PolicyNode<K, V>> newNodes = new ArrayList<>(entries.size());
+
+        for (Map.Entry<K, V> entry : entries.entrySet()) {
+            newNodes.add(new PolicyNode<>(entry.getKey(), entry.getValue(), getSize(entry.getValue())));
+        }
+
+        mLock.lock();
+
+        try {
+            drainReadBuffer();
+
+            for (PolicyNode<K, V> newNode : newNodes) {
+                if (newNode.size <= mMaxSize) {
+                    putLocked(newNode);
+                }
+            }
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * 这个函数在被调用时一定要放到锁里
+     */
+    private void putLocked(@NonNull PolicyNode<K, V> newNode) {
+        newNode.generation = mGeneration;
+
+        PolicyNode<K, V> oldNode = mIndex.get(newNode.key);
+
+        if (oldNode != null) {
+            unlink(oldNode, false);
+        }
+
+        onAdmit(newNode);
+
+        evictTo(mMaxSize - newNode.size);
+
+        onLink(newNode);
+
+        mIndex.put(newNode.key, newNode);
+
+        mCurSize += newNode.size;
+
+        // 和 HotEndLruCache 一样，替换同一个key的值算访问了一次
+        if (oldNode != null) {
+            onAccess(newNode);
+        }
+    }
+
+    @Override
+    public void getAll(@NonNull Iterable<K> keys, @NonNull Map<K, V> result) {
+        for (K key : keys) {
+            V value = get(key);
+
+            if (value != null) {
+                result.put(key, value);
+            }
+        }
+    }
+
+    @Nullable
+    @Override
+    public V remove(@NonNull K key) {
+        mLock.lock();
+
+        try {
+            return removeLocked(key);
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Override
+    public int removeAll(@NonNull Collection<K> keys) {
+        int count = 0;
+
+        mLock.lock();
+
+        try {
+            for (K key : keys) {
+                if (removeLocked(key) != null) {
+                    count++;
+                }
+            }
+        } finally {
+            mLock.unlock();
+        }
+
+        return count;
+    }
+
+    /**
+     * 这个函数在被调用时一定要放到锁里
+     */
+    @Nullable
+    private V removeLocked(@NonNull K key) {
+        PolicyNode<K, V> node = mIndex.get(key);
+
+        if (node == null) {
+            return null;
+        }
+
+        V value = node.value;
+
+        unlink(node, node == mTraversingNode);
+
+        return value;
+    }
+
+    /**
+     * 这个函数在被调用时一定要放到锁里
+     */
+    private void unlink(@NonNull PolicyNode<K, V> node, boolean evict) {
+        mIndex.remove(node.key);
+
+        if (evict) {
+            onEvict(node);
+        } else {
+            onRemove(node);
+        }
+
+        node.value = null;
+
+        mCurSize -= node.size;
+    }
+
+    /**
+     * 这个函数在被调用时一定要放到锁里
+     */
+    private boolean evictTo(int targetSize) {
+        boolean evicted = false;
+
+        while (mCurSize > targetSize && mCurSize > 0) {
+            unlink(selectVictim(), true);
+
+            evicted = true;
+        }
+
+        return evicted;
+    }
+
+    protected int getSize(@NonNull V value) {
+        if (mWeigher == null) {
+            return 1;
+        }
+
+        return Math.max(1, mWeigher.weigh(value));
+    }
+
+    @Override
+    public boolean willTrimOnPut(@NonNull K key, @NonNull V value) {
+        return mCurSize + getSize(value) > mMaxSize;
+    }
+
+    @Override
+    public boolean admit(@NonNull K key, @NonNull V value) {
+        return true;
+    }
+
+    @Override
+    public boolean trimTo(int targetSize) {
+        mLock.lock();
+
+        try {
+            drainReadBuffer();
+
+            return evictTo(targetSize);
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Override
+    public int traverseTrim(int maxCount, @NonNull TraverseCallback<K, V> callback) {
+        return traverseTrim(maxCount, -1, callback);
+    }
+
+    /**
+     * callback 返回true时应该自己remove这个节点，没有remove的话这里替它淘汰掉
+     */
+    @Override
+    public int traverseTrim(int maxCount, int targetSize, @NonNull TraverseCallback<K, V> callback) {
+        mLock.lock();
+
+        int count = 0;
+
+        try {
+            drainReadBuffer();
+
+            for (; count < maxCount && mCurSize > targetSize && mCurSize > 0; ++count) {
+                PolicyNode<K, V> node = selectVictim();
+
+                mTraversingNode = node;
+
+                boolean canTrim;
+
+                try {
+                    canTrim = callback.onTraverse(node.key, node.value);
+                } finally {
+                    mTraversingNode = null;
+                }
+
+                if (!node.isResident()) {
+                    continue;
+                }
+
+                if (canTrim) {
+                    unlink(node, true);
+                } else {
+                    onRetain(node);
+                }
+            }
+        } finally {
+            mLock.unlock();
+        }
+
+        return count;
+    }
+
+    @Override
+    public boolean forEach(@NonNull TraverseCallback<K, V> callback) {
+        mLock.lock();
+
+        try {
+            for (PolicyNode<K, V> node : mIndex.values()) {
+                V value = node.value;
+
+                if (value != null && !callback.onTraverse(node.key, value)) {
+                    return false;
+                }
+            }
+
+            return true;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * 索引是 ConcurrentHashMap，直接用它弱一致的迭代器，不加锁
+     */
+    @NonNull
+    @Override
+    public Cursor<K, V> cursor() {
+        Iterator<PolicyNode<K, V>> iterator = mIndex.values().iterator();
+
+        return (maxCount, callback) -> {
+            int count = 0;
+
+            while (count < maxCount && iterator.hasNext()) {
+                PolicyNode<K, V> node = iterator.next();
+
+                // ghost 节点没有value
+                V value = node.value;
+
+                if (value == null) {
+                    continue;
+                }
+
+                count++;
+
+                if (!callback.onTraverse(node.key, value)) {
+                    return false;
+                }
+            }
+
+            return iterator.hasNext();
+        };
+    }
+
+    @Override
+    public void clear() {
+        mLock.lock();
+
+        try {
+            drainReadBuffer();
+
+            // 旧的节点还留着value，clear 之后才记下的命中记录靠 generation 跳过
+            mGeneration++;
+
+            mIndex = new ConcurrentHashMap<>();
+            mGhosts = new HashMap<>();
+
+            onClear();
+
+            mCurSize = 0;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Override
+    public final int size() {
+        return mCurSize;
+    }
+
+    @Override
+    public final int maxSize() {
+        return mMaxSize;
+    }
+
+    @Override
+    public final float hotPercent() {
+        return mHotPercent;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{" + "mCurSize=" + mCurSize + ", mMaxSize=" + mMaxSize +
+                ", maxHotSize=" + maxHotSize() + ", ghostCount=" + mGhosts.size() + '}';
+    }
+}
@@ -0,0 +1,50 @@
+package com.hydra.framework.cache.lru;
+
+/**
+ * Created by Hydra.
+ * <p>
+ * PolicyLruCache 里的节点，value 为null时代表这个节点只是一个淘汰记录(ghost)，只留key和size
+ * <p>
+ * pre/next 和 queuePre/queueNext 是两套链表指针，LIRS 里一个节点会同时在栈和队列里
+ */
+final class PolicyNode<K, V> {
+
+    final K key;
+
+    // 无锁的get会读这个字段，淘汰或者remove之后在锁里置成null
+    volatile V value;
+
+    final int size;
+
+    // 节点在哪个队列里、是冷是热，由具体的策略自己定义
+    int status;
+
+    // CLOCK-Pro 的引用位和测试期
+    boolean referenced;
+    boolean inTest;
+
+    // 放进来时 PolicyLruCache 的 generation，clear 之后还没drain的命中记录按它认出旧的节点
+    int generation;
+
+    PolicyNode<K, V> pre;
+    PolicyNode<K, V> next;
+
+    PolicyNode<K, V> queuePre;
+    PolicyNode<K, V> queueNext;
+
+    PolicyNode(K key, V value, int size) {
+        this.key = key;
+        this.value = value;
+        this.size = size;
+    }
+
+    boolean isResident() {
+        return value != null;
+    }
+
+    @Override
+    public String toString() {
+        return "PolicyNode[key:" + key + ", size:" + size + ", status:" + status +
+                ", resident:" + isResident() + "]";
+    }
+}
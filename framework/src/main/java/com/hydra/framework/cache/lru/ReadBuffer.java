@@ -0,0 +1,133 @@
+package com.hydra.framework.cache.lru;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Created by Hydra.
+ * <p>
+ * 命中时不直接改节点的visitCount，而是把节点记到这里，等拿到写锁的时候再批量处理
+ * <p>
+ * 按线程分成几条ring buffer，每个线程基本只写自己那条，写的时候只有这条buffer自己的计数器做CAS；
+ * 满了或者CAS失败就直接丢掉这次记录，访问记录允许有损，命中的耗时不能变长
+ */
+final class ReadBuffer<E> {
+
+    // 每条buffer的长度，2的幂
+    private static final int BUFFER_SIZE = 16;
+    private static final int BUFFER_MASK = BUFFER_SIZE - 1;
+
+    // buffer条数按cpu个数算时的上限
+    private static final int MAX_STRIPE_COUNT = 4;
+
+    static final int SUCCESS = 0;
+    static final int FULL = 1;
+    static final int FAILED = 2;
+
+    interface Consumer<E> {
+        void accept(@NonNull E node);
+    }
+
+    @SuppressWarnings("rawtypes")
+    private static final class Stripe<E> {
+
+        private static final AtomicLongFieldUpdater<Stripe> WRITE_COUNTER_UPDATER =
+                AtomicLongFieldUpdater.newUpdater(Stripe.class, "writeCounter");
+
+        final AtomicReferenceArray<E> buffer = new AtomicReferenceArray<>(BUFFER_SIZE);
+
+        // 只在锁里改
+        volatile long readCounter = 0;
+
+        volatile long writeCounter = 0;
+
+        int offer(@NonNull E node) {
+            long head = readCounter;
+            long tail = writeCounter;
+
+            if (tail - head >= BUFFER_SIZE) {
+                return FULL;
+            }
+
+            if (!WRITE_COUNTER_UPDATER.compareAndSet(this, tail, tail + 1)) {
+                return FAILED;
+            }
+
+            buffer.lazySet((int) tail & BUFFER_MASK, node);
+
+            return tail + 1 - head >= BUFFER_SIZE ? FULL : SUCCESS;
+        }
+
+        void drainTo(@NonNull Consumer<E> consumer) {
+            long head = readCounter;
+            long tail = writeCounter;
+
+            for (; head < tail; ++head) {
+                int index = (int) head & BUFFER_MASK;
+
+                E node = buffer.get(index);
+
+                // 计数器已经加了，节点还没写进来，下次再处理
+                if (node == null) {
+                    break;
+                }
+
+                buffer.lazySet(index, null);
+
+                consumer.accept(node);
+            }
+
+            readCounter = head;
+        }
+    }
+
+    private final AtomicReferenceArray<Stripe<E>> mStripes;
+
+    private final int mStripeMask;
+
+    ReadBuffer() {
+        int count = 1;
+
+        while (count < Math.min(Runtime.getRuntime().availableProcessors(), MAX_STRIPE_COUNT)) {
+            count <<= 1;
+        }
+
+        mStripes = new AtomicReferenceArray<>(count);
+        mStripeMask = count - 1;
+    }
+
+    /**
+     * 不加锁，返回 FULL 时调用者应该尽快 drain 一次
+     */
+    int offer(@NonNull E node) {
+        long id = Thread.currentThread().getId();
+
+        int index = (int) (id * 0x9E3779B97F4A7C15L >>> 32) & mStripeMask;
+
+        Stripe<E> stripe = mStripes.get(index);
+
+        if (stripe == null) {
+            // 第一次用到这条buffer时才创建，大部分cache只会被少数几个线程读
+            mStripes.compareAndSet(index, null, new Stripe<E>());
+
+            stripe = mStripes.get(index);
+        }
+
+        return stripe.offer(node);
+    }
+
+    /**
+     * 只在锁里调用
+     */
+    void drainTo(@NonNull Consumer<E> consumer) {
+        for (int i = 0; i < mStripes.length(); ++i) {
+            Stripe<E> stripe = mStripes.get(i);
+
+            if (stripe != null) {
+                stripe.drainTo(consumer);
+            }
+        }
+    }
+}
@@ -0,0 +1,395 @@
+package com.hydra.framework.cache.lru;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Created by Hydra.
+ * <p>
+ * 按key的hash分成N个独立的HotEndLruCache，每个segment有自己的锁、自己的热冷环和size预算，
+ * 不同segment上的 put、remove、traverseTrim 可以并行
+ * <p>
+ * 对外的 size、maxSize、maxHotSize 都是所有segment的总和，resize 时把总的size平分到每个segment
+ * <p>
+ * 每个segment默认是 HotEndLruCache，也可以用 EvictionPolicy 换成别的淘汰策略
+ * <p>
+ * 经过 JCache 的写操作还是在 JCache 自己的 mLock 里串行的，分段只对直接用这个LRU的调用方有用；
+ * JCache 里能并行的只有不加 mLock 的读命中和 trim 线程上的 traverseTrim
+ */
+public class SegmentedHotEndLruCache<K, V> implements JLruCache<K, V> {
+
+    // segment个数按cpu个数算时的上限
+    private static final int MAX_AUTO_SEGMENT_COUNT = 16;
+
+    // 每个segment最少要有 HotEndLruCache 允许的最小size
+    private static final int MIN_SEGMENT_SIZE = 2;
+
+    private final JLruCache<K, V>[] mSegments;
+
+    private final int mSegmentMask;
+
+    private volatile int mMaxSize;
+
+    // traverseTrim 时从哪个segment开始，轮着来，避免总是trim前面几个segment
+    private int mNextTrimSegment = 0;
+
+    public SegmentedHotEndLruCache(int maxSize, float hotPercent, int segmentCount) {
+        this(maxSize, hotPercent, segmentCount, null);
+    }
+
+    public SegmentedHotEndLruCache(int maxSize, float hotPercent, int segmentCount,
+                                   @Nullable Weigher<V> weigher) {
+        this(maxSize, hotPercent, segmentCount, weigher, EvictionPolicy.HOT_END);
+    }
+
+    /**
+     * @param segmentCount 会被向上取成2的幂，<= 0 时按cpu个数来算
+     * @param weigher      每个segment都用这个weigher算size
+     * @param policy       每个segment用这个策略创建
+     */
+    public SegmentedHotEndLruCache(int maxSize, float hotPercent, int segmentCount,
+                                   @Nullable Weigher<V> weigher, @NonNull EvictionPolicy policy) {
+        int count = segmentCountFor(segmentCount);
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        JLruCache<K, V>[] segments = new JLruCache[count];
+
+        mSegments = segments;
+        mSegmentMask = count - 1;
+
+        int segmentMaxSize = segmentMaxSize(maxSize);
+
+        for (int i = 0; i < count; ++i) {
+            mSegments[i] = policy.create(segmentMaxSize, hotPercent, weigher);
+        }
+
+        mMaxSize = maxSize;
+    }
+
+    private static int segmentCountFor(int segmentCount) {
+        if (segmentCount <= 0) {
+            segmentCount = Math.min(Runtime.getRuntime().availableProcessors(), MAX_AUTO_SEGMENT_COUNT);
+        }
+
+        int count = 1;
+
+        while (count < segmentCount) {
+            count <<= 1;
+        }
+
+        return count;
+    }
+
+    private int segmentMaxSize(int maxSize) {
+        return Math.max(MIN_SEGMENT_SIZE, (maxSize + mSegments.length - 1) / mSegments.length);
+    }
+
+    @NonNull
+    private JLruCache<K, V> segmentFor(@NonNull K key) {
+        return mSegments[segmentIndexFor(key)];
+    }
+
+    private int segmentIndexFor(@NonNull K key) {
+        int h = key.hashCode();
+
+        return (h ^ (h >>> 16)) & mSegmentMask;
+    }
+
+    public final int segmentCount() {
+        return mSegments.length;
+    }
+
+    @Override
+    public void resize(int maxSize, float hotPercent) {
+        int segmentMaxSize = segmentMaxSize(maxSize);
+
+        for (JLruCache<K, V> segment : mSegments) {
+            segment.resize(segmentMaxSize, hotPercent);
+        }
+
+        mMaxSize = maxSize;
+    }
+
+    @Nullable
+    @Override
+    public V get(@NonNull K key) {
+        return segmentFor(key).get(key);
+    }
+
+    @Override
+    public boolean put(@NonNull K key, @NonNull V value) {
+        return segmentFor(key).put(key, value);
+    }
+
+    @Nullable
+    @Override
+    public V remove(@NonNull K key) {
+        return segmentFor(key).remove(key);
+    }
+
+    @Override
+    public void getAll(@NonNull Iterable<K> keys, @NonNull Map<K, V> result) {
+        for (K key : keys) {
+            V value = segmentFor(key).get(key);
+
+            if (value != null) {
+                result.put(key, value);
+            }
+        }
+    }
+
+    /**
+     * 先按segment分组，每个segment只加一次锁
+     */
+    @Override
+    public void putAll(@NonNull Map<K, V> entries) {
+        HashMap<K, V>[] groups = groupBySegment(entries.size());
+
+        for (Map.Entry<K, V> entry : entries.entrySet()) {
+            groups[segmentIndexFor(entry.getKey())].put(entry.getKey(), entry.getValue());
+        }
+
+        for (int i = 0; i < mSegments.length; ++i) {
+            if (!groups[i].isEmpty()) {
+                mSegments[i].putAll(groups[i]);
+            }
+        }
+    }
+
+    @Override
+    public int removeAll(@NonNull Collection<K> keys) {
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        ArrayList<K>[] groups = new ArrayList[mSegments.length];
+
+        for (K key : keys) {
+            int index = segmentIndexFor(key);
+
+            if (groups[index] == null) {
+                groups[index] = new ArrayList<>();
+            }
+
+            groups[index].add(key);
+        }
+
+        int count = 0;
+
+        for (int i = 0; i < mSegments.length; ++i) {
+            if (groups[i] != null) {
+                count += mSegments[i].removeAll(groups[i]);
+            }
+        }
+
+        return count;
+    }
+
+    @NonNull
+    private HashMap<K, V>[] groupBySegment(int totalSize) {
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        HashMap<K, V>[] groups = new HashMap[mSegments.length];
+
+        for (int i = 0; i < groups.length; ++i) {
+            groups[i] = new HashMap<>(Math.max(4, totalSize / groups.length * 2));
+        }
+
+        return groups;
+    }
+
+    @Override
+    public boolean willTrimOnPut(@NonNull K key, @NonNull V value) {
+        return segmentFor(key).willTrimOnPut(key, value);
+    }
+
+    @Override
+    public boolean admit(@NonNull K key, @NonNull V value) {
+        return segmentFor(key).admit(key, value);
+    }
+
+    /**
+     * 只对 HotEndLruCache 的segment有效
+     */
+    public void enableAdmissionFilter() {
+        for (JLruCache<K, V> segment : mSegments) {
+            if (segment instanceof HotEndLruCache) {
+                ((HotEndLruCache<K, V>) segment).enableAdmissionFilter();
+            }
+        }
+    }
+
+    /**
+     * 每个segment各自调整自己的热端大小，只对 HotEndLruCache 的segment有效
+     */
+    public void enableAdaptiveHotPercent() {
+        for (JLruCache<K, V> segment : mSegments) {
+            if (segment instanceof HotEndLruCache) {
+                ((HotEndLruCache<K, V>) segment).enableAdaptiveHotPercent();
+            }
+        }
+    }
+
+    @Override
+    public boolean trimTo(int targetSize) {
+        int segmentTargetSize = targetSize / mSegments.length;
+
+        boolean trimmed = false;
+
+        for (JLruCache<K, V> segment : mSegments) {
+            trimmed |= segment.trimTo(segmentTargetSize);
+        }
+
+        return trimmed;
+    }
+
+    /**
+     * maxCount 平分到每个segment上，每个segment只在自己的锁里traverse
+     * callback 里可以直接调用 remove(key)，会落到当前正在traverse的segment上，锁是可重入的
+     */
+    @Override
+    public int traverseTrim(int maxCount, @NonNull TraverseCallback<K, V> callback) {
+        return traverseTrim(maxCount, -1, callback);
+    }
+
+    @Override
+    public int traverseTrim(int maxCount, int targetSize, @NonNull TraverseCallback<K, V> callback) {
+        int segmentCount = mSegments.length;
+        int segmentTargetSize = targetSize < 0 ? -1 : targetSize / segmentCount;
+        int segmentMaxCount = (maxCount + segmentCount - 1) / segmentCount;
+
+        int start;
+
+        synchronized (this) {
+            start = mNextTrimSegment;
+
+            mNextTrimSegment = (start + 1) & mSegmentMask;
+        }
+
+        int count = 0;
+
+        for (int i = 0; i < segmentCount && count < maxCount; ++i) {
+            JLruCache<K, V> segment = mSegments[(start + i) & mSegmentMask];
+
+            count += segment.traverseTrim(Math.min(segmentMaxCount, maxCount - count),
+                    segmentTargetSize, callback);
+        }
+
+        return count;
+    }
+
+    /**
+     * 一个segment一个segment地遍历，每次只拿一个segment的锁
+     */
+    @Override
+    public boolean forEach(@NonNull TraverseCallback<K, V> callback) {
+        for (JLruCache<K, V> segment : mSegments) {
+            if (!segment.forEach(callback)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * 一个segment一个segment地往后走
+     */
+    @NonNull
+    @Override
+    public Cursor<K, V> cursor() {
+        return new Cursor<K, V>() {
+            private int mSegment = 0;
+
+            // 为null时遍历完了
+            @Nullable
+            private Cursor<K, V> mCursor = mSegments[0].cursor();
+
+            private boolean mStopped = false;
+
+            @Override
+            public boolean next(int maxCount, @NonNull TraverseCallback<K, V> callback) {
+                if (mCursor == null) {
+                    return false;
+                }
+
+                boolean hasNext = mCursor.next(maxCount, (key, value) -> {
+                    mStopped = !callback.onTraverse(key, value);
+
+                    return !mStopped;
+                });
+
+                if (hasNext) {
+                    return true;
+                }
+
+                if (mStopped || ++mSegment >= mSegments.length) {
+                    mCursor = null;
+
+                    return false;
+                }
+
+                // 下一个segment留到下一次 next 再看，一次只占一个segment的锁
+                mCursor = mSegments[mSegment].cursor();
+
+                return true;
+            }
+        };
+    }
+
+    @Override
+    public void clear() {
+        for (JLruCache<K, V> segment : mSegments) {
+            segment.clear();
+        }
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+
+        for (JLruCache<K, V> segment : mSegments) {
+            size += segment.size();
+        }
+
+        return size;
+    }
+
+    @Override
+    public int maxSize() {
+        return mMaxSize;
+    }
+
+    @Override
+    public int maxHotSize() {
+        int maxHotSize = 0;
+
+        for (JLruCache<K, V> segment : mSegments) {
+            maxHotSize += segment.maxHotSize();
+        }
+
+        return maxHotSize;
+    }
+
+    /**
+     * 所有segment的平均值
+     */
+    @Override
+    public float hotPercent() {
+        float hotPercent = 0.0F;
+
+        for (JLruCache<K, V> segment : mSegments) {
+            hotPercent += segment.hotPercent();
+        }
+
+        return hotPercent / mSegments.length;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "SegmentedHotEndLruCache{" + "segmentCount=" + mSegments.length +
+                ", size=" + size() + ", mMaxSize=" + mMaxSize + ", maxHotSize=" + maxHotSize() + '}';
+    }
+}
@@ -0,0 +1,106 @@
+package com.hydra.framework.cache.lru;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Created by Hydra.
+ * <p>
+ * Segmented LRU：新节点先进 probation 段，在 probation 里再被访问一次才升到 protected 段，
+ * protected 满了就把它最久没用的节点降回 probation 的头部，淘汰永远先从 probation 的尾部开始
+ * <p>
+ * protected 段的大小是 maxSize * hotPercent
+ */
+public class SlruLruCache<K, V> extends PolicyLruCache<K, V> {
+
+    private static final int STATUS_PROBATION = 0;
+    private static final int STATUS_PROTECTED = 1;
+
+    private final PolicyList<K, V> mProbation = new PolicyList<>(false);
+    private final PolicyList<K, V> mProtected = new PolicyList<>(false);
+
+    public SlruLruCache(int maxSize, float hotPercent) {
+        this(maxSize, hotPercent, null);
+    }
+
+    public SlruLruCache(int maxSize, float hotPercent, @Nullable Weigher<V> weigher) {
+        super(maxSize, hotPercent, weigher);
+    }
+
+    @Override
+    public int maxHotSize() {
+        return Math.min(mMaxSize - 1, Math.max(1, (int) ((float) mMaxSize * mHotPercent)));
+    }
+
+    @Override
+    void onAccess(@NonNull PolicyNode<K, V> node) {
+        if (node.status == STATUS_PROTECTED) {
+            mProtected.moveToFirst(node);
+
+            return;
+        }
+
+        mProbation.remove(node);
+
+        node.status = STATUS_PROTECTED;
+        mProtected.addFirst(node);
+
+        demoteProtected();
+    }
+
+    private void demoteProtected() {
+        int maxHotSize = maxHotSize();
+
+        PolicyNode<K, V> last;
+
+        while (mProtected.weight() > maxHotSize && (last = mProtected.last()) != null) {
+            mProtected.remove(last);
+
+            last.status = STATUS_PROBATION;
+            mProbation.addFirst(last);
+        }
+    }
+
+    @Override
+    void onAdmit(@NonNull PolicyNode<K, V> node) {
+        node.status = STATUS_PROBATION;
+    }
+
+    @Override
+    void onLink(@NonNull PolicyNode<K, V> node) {
+        mProbation.addFirst(node);
+    }
+
+    @NonNull
+    @Override
+    PolicyNode<K, V> selectVictim() {
+        PolicyNode<K, V> victim = mProbation.last();
+
+        return victim != null ? victim : mProtected.last();
+    }
+
+    @Override
+    void onEvict(@NonNull PolicyNode<K, V> node) {
+        onRemove(node);
+    }
+
+    @Override
+    void onRemove(@NonNull PolicyNode<K, V> node) {
+        if (node.status == STATUS_PROTECTED) {
+            mProtected.remove(node);
+        } else {
+            mProbation.remove(node);
+        }
+    }
+
+    @Override
+    void onResize() {
+        demoteProtected();
+    }
+
+    @Override
+    void onClear() {
+        mProbation.clear();
+        mProtected.clear();
+    }
+}
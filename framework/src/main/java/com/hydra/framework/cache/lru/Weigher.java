@@ -0,0 +1,13 @@
+package com.hydra.framework.cache.lru;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Created by Hydra.
+ * <p>
+ * 计算一个节点占用的size，比如按字节数，返回值小于1时按1算
+ */
+public interface Weigher<V> {
+
+    int weigh(@NonNull V value);
+}
@@ -0,0 +1,134 @@
+package com.hydra.framework.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Created by Hydra.
+ * <p>
+ * 打开准入判断、hard满了的时候，覆盖已经在hard里的key不能被拒绝，不然会一直读到旧值；
+ * 没被准入放到weak里的新值，也不能被之前就开始了的加载盖掉
+ */
+public class JCacheAdmissionTest {
+
+    private static final int MAX_HARD_SIZE = 4;
+
+    private static final long TIMEOUT_SECONDS = 5;
+
+    private static final String SLOW_KEY = "slow";
+
+    // SLOW_KEY 开始加载时 countDown
+    private final CountDownLatch mLoadStarted = new CountDownLatch(1);
+
+    // SLOW_KEY 的加载等它
+    private final CountDownLatch mLoadGate = new CountDownLatch(1);
+
+    private final JCache<String> mCache = JCacheContainer.buildCache(new JCacheContainer.JCacheBuilder<String>()
+            .clazz(String.class)
+            .minHardSize(MAX_HARD_SIZE)
+            .maxHardSize(MAX_HARD_SIZE)
+            .admissionFilter()
+            .cacheController(new JCache.CacheController<String>() {
+                @Override
+                public String createNewCacheObject(@NonNull JCacheKey cacheKey) {
+                    if (SLOW_KEY.equals(cacheKey.keyAt(0))) {
+                        mLoadStarted.countDown();
+
+                        await(mLoadGate);
+                    }
+
+                    return "old" + cacheKey;
+                }
+            }));
+
+    @After
+    public void tearDown() {
+        JCacheContainer.removeCache(String.class);
+    }
+
+    @Test
+    public void putOverwritesResidentKeyWhenFull() {
+        fillHard();
+
+        for (int i = 0; i < MAX_HARD_SIZE; ++i) {
+            mCache.put(key(i), "new" + i);
+
+            assertEquals("new" + i, mCache.get(key(i)));
+        }
+    }
+
+    @Test
+    public void computeOverwritesResidentKeyWhenFull() {
+        fillHard();
+
+        for (int i = 0; i < MAX_HARD_SIZE; ++i) {
+            int index = i;
+
+            mCache.compute(key(i), new JCache.ComputeFunction<String>() {
+                @Override
+                public String compute(@NonNull JCacheKey cacheKey, @Nullable String oldValue) {
+                    return "computed" + index;
+                }
+            });
+
+            assertEquals("computed" + i, mCache.get(key(i)));
+        }
+    }
+
+    @Test
+    public void rejectedPutAllIsNotOverwrittenByRunningLoad() throws Exception {
+        // 多读几遍，hard里的节点都比新key热，putAll 的值不会被准入，只能放在weak里
+        for (int round = 0; round < 4; ++round) {
+            fillHard();
+        }
+
+        JCacheKey slow = JCacheKey.buildCacheKey(SLOW_KEY);
+
+        Thread loader = new Thread(() -> mCache.get(slow));
+        loader.start();
+
+        assertTrue(mLoadStarted.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        String bulk = "bulk";
+
+        mCache.putAll(Collections.singletonMap(slow, bulk));
+
+        mLoadGate.countDown();
+
+        loader.join(TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS));
+
+        // 加载开始得比 putAll 早，结果是旧的，不能盖掉 putAll 的值
+        assertEquals(bulk, mCache.get(slow));
+    }
+
+    private void fillHard() {
+        for (int i = 0; i < MAX_HARD_SIZE; ++i) {
+            mCache.get(key(i));
+        }
+    }
+
+    private static void await(@NonNull CountDownLatch latch) {
+        try {
+            if (!latch.await(TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                throw new RuntimeException("load gate timeout");
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @NonNull
+    private static JCacheKey key(int index) {
+        return JCacheKey.buildCacheKey("k" + index);
+    }
+}
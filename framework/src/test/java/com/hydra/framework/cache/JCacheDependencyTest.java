@@ -0,0 +1,189 @@
+package com.hydra.framework.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import androidx.annotation.NonNull;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+
+/**
+ * Created by Hydra.
+ * <p>
+ * CacheController.dependenciesOf 声明的依赖：依赖的节点变了，直接和间接依赖它的节点(包括别的cache里的)都要被删掉
+ */
+public class JCacheDependencyTest {
+
+    private static final int MESSAGE_COUNT = 3;
+
+    // 会话里的消息，key 是 (会话, 序号)
+    private final JCache<String> mMessages = JCacheContainer.buildCache(new JCacheContainer.JCacheBuilder<String>()
+            .clazz(String.class)
+            .cacheController(new JCache.CacheController<String>() {
+                @Override
+                public String createNewCacheObject(@NonNull JCacheKey cacheKey) {
+                    return "message" + cacheKey;
+                }
+            }));
+
+    // 会话的摘要，key 是 (会话)，依赖会话里所有的消息；"all" 依赖会话1和2的摘要
+    private final JCache<CharSequence> mSummaries = JCacheContainer.buildCache(
+            new JCacheContainer.JCacheBuilder<CharSequence>()
+                    .clazz(CharSequence.class)
+                    .cacheController(new JCache.CacheController<CharSequence>() {
+                        @Override
+                        public CharSequence createNewCacheObject(@NonNull JCacheKey cacheKey) {
+                            return "summary" + cacheKey;
+                        }
+
+                        @Override
+                        public Collection<JCacheDependency> dependenciesOf(@NonNull JCacheKey cacheKey,
+                                                                           @NonNull CharSequence value) {
+                            if ("all".equals(cacheKey.keyAt(0))) {
+                                return Arrays.asList(JCacheDependency.of(CharSequence.class, summaryKey(1)),
+                                        JCacheDependency.of(CharSequence.class, summaryKey(2)));
+                            }
+
+                            ArrayList<JCacheDependency> dependencies = new ArrayList<>(MESSAGE_COUNT);
+
+                            for (int i = 0; i < MESSAGE_COUNT; ++i) {
+                                dependencies.add(JCacheDependency.of(String.class,
+                                        messageKey(cacheKey.<Integer>keyAt(0), i)));
+                            }
+
+                            return dependencies;
+                        }
+                    }));
+
+    // "a" 和 "b" 互相依赖
+    private final JCache<Integer> mCycle = JCacheContainer.buildCache(new JCacheContainer.JCacheBuilder<Integer>()
+            .clazz(Integer.class)
+            .cacheController(new JCache.CacheController<Integer>() {
+                @Override
+                public Integer createNewCacheObject(@NonNull JCacheKey cacheKey) {
+                    return cacheKey.toString().length();
+                }
+
+                @Override
+                public Collection<JCacheDependency> dependenciesOf(@NonNull JCacheKey cacheKey, @NonNull Integer value) {
+                    String other = "a".equals(cacheKey.keyAt(0)) ? "b" : "a";
+
+                    return Collections.singletonList(JCacheDependency.of(Integer.class,
+                            JCacheKey.buildCacheKey(other)));
+                }
+            }));
+
+    @After
+    public void tearDown() {
+        JCacheContainer.removeCache(String.class);
+        JCacheContainer.removeCache(CharSequence.class);
+        JCacheContainer.removeCache(Integer.class);
+    }
+
+    @Test
+    public void putInvalidatesDependentsInOtherCache() {
+        mSummaries.get(summaryKey(1));
+        mSummaries.get(summaryKey(2));
+
+        mMessages.put(messageKey(1, 0), "edited");
+
+        assertNull(mSummaries.get(summaryKey(1), false));
+        assertNotNull(mSummaries.get(summaryKey(2), false));
+        assertEquals("edited", mMessages.get(messageKey(1, 0), false));
+    }
+
+    @Test
+    public void putAllInvalidatesDependents() {
+        mMessages.get(messageKey(1, 0));
+        mSummaries.get(summaryKey(1));
+        mSummaries.get(summaryKey(2));
+        mSummaries.get(summaryKey("all"));
+
+        HashMap<JCacheKey, String> messages = new HashMap<>();
+        messages.put(messageKey(1, 0), "edited");
+        messages.put(messageKey(3, 0), "new");
+
+        mMessages.putAll(messages);
+
+        assertNull(mSummaries.get(summaryKey(1), false));
+        assertNull(mSummaries.get(summaryKey("all"), false));
+        assertNotNull(mSummaries.get(summaryKey(2), false));
+        assertEquals("edited", mMessages.get(messageKey(1, 0), false));
+    }
+
+    @Test
+    public void invalidateCascadesTransitively() {
+        mSummaries.get(summaryKey(1));
+        mSummaries.get(summaryKey(2));
+        mSummaries.get(summaryKey("all"));
+
+        mMessages.invalidate(messageKey(2, 1));
+
+        assertNull(mSummaries.get(summaryKey(2), false));
+        assertNull(mSummaries.get(summaryKey("all"), false));
+        assertNotNull(mSummaries.get(summaryKey(1), false));
+    }
+
+    @Test
+    public void dependentChangeDoesNotCascadeBack() {
+        mMessages.get(messageKey(1, 0));
+        mSummaries.get(summaryKey(1));
+        mSummaries.get(summaryKey("all"));
+
+        mSummaries.invalidate(summaryKey(1));
+
+        assertNull(mSummaries.get(summaryKey("all"), false));
+        assertNotNull(mMessages.get(messageKey(1, 0), false));
+    }
+
+    @Test
+    public void invalidateIfCascades() {
+        mMessages.get(messageKey(1, 0));
+        mMessages.get(messageKey(2, 0));
+        mSummaries.get(summaryKey(1));
+        mSummaries.get(summaryKey(2));
+
+        int removed = mMessages.invalidateIf((cacheKey, value) -> cacheKey.<Integer>keyAt(0) == 1);
+
+        assertEquals(1, removed);
+        assertNull(mSummaries.get(summaryKey(1), false));
+        assertNotNull(mSummaries.get(summaryKey(2), false));
+    }
+
+    @Test
+    public void cycleIsInvalidatedOnce() {
+        mCycle.get(JCacheKey.buildCacheKey("a"));
+        mCycle.get(JCacheKey.buildCacheKey("b"));
+
+        mCycle.invalidate(JCacheKey.buildCacheKey("a"));
+
+        assertNull(mCycle.get(JCacheKey.buildCacheKey("a"), false));
+        assertNull(mCycle.get(JCacheKey.buildCacheKey("b"), false));
+
+        // 依赖图里没有留下旧的边，重新加载之后还能正常级联
+        mCycle.get(JCacheKey.buildCacheKey("a"));
+        mCycle.get(JCacheKey.buildCacheKey("b"));
+
+        mCycle.invalidate(JCacheKey.buildCacheKey("b"));
+
+        assertNull(mCycle.get(JCacheKey.buildCacheKey("a"), false));
+    }
+
+    @NonNull
+    private static JCacheKey messageKey(int conversation, int index) {
+        return JCacheKey.buildCacheKey(conversation, index);
+    }
+
+    @NonNull
+    private static JCacheKey summaryKey(@NonNull Object conversation) {
+        return JCacheKey.buildCacheKey(conversation);
+    }
+}
@@ -0,0 +1,178 @@
+package com.hydra.framework.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import androidx.annotation.NonNull;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Created by Hydra.
+ * <p>
+ * get 没命中时在锁外面加载，同一个key只加载一次，不同的key互不等待
+ */
+public class JCacheSingleFlightTest {
+
+    private static final long TIMEOUT_SECONDS = 5;
+
+    private final ConcurrentHashMap<String, AtomicInteger> mLoadCounts = new ConcurrentHashMap<>();
+
+    // 不为null时 createNewCacheObject 先等它，用来让加载卡住
+    private volatile CountDownLatch mLoadGate;
+
+    // 每次开始加载时 countDown
+    private volatile CountDownLatch mLoadStarted = new CountDownLatch(1);
+
+    private final JCache<String> mCache = JCacheContainer.buildCache(new JCacheContainer.JCacheBuilder<String>()
+            .clazz(String.class)
+            .cacheController(new JCache.CacheController<String>() {
+                @Override
+                public String createNewCacheObject(@NonNull JCacheKey cacheKey) {
+                    String key = cacheKey.toString();
+
+                    AtomicInteger count = mLoadCounts.get(key);
+
+                    if (count == null) {
+                        AtomicInteger newCount = new AtomicInteger();
+
+                        count = mLoadCounts.putIfAbsent(key, newCount);
+
+                        if (count == null) {
+                            count = newCount;
+                        }
+                    }
+
+                    count.incrementAndGet();
+
+                    mLoadStarted.countDown();
+
+                    CountDownLatch gate = mLoadGate;
+
+                    if (gate != null && !key.startsWith("free")) {
+                        await(gate);
+                    }
+
+                    return "v" + key;
+                }
+            }));
+
+    @After
+    public void tearDown() {
+        JCacheContainer.removeCache(String.class);
+    }
+
+    @Test
+    public void concurrentMissesOnSameKeyLoadOnce() throws Exception {
+        JCacheKey key = JCacheKey.buildCacheKey("same");
+
+        mLoadGate = new CountDownLatch(1);
+
+        int threadCount = 8;
+
+        String[] results = new String[threadCount];
+        Thread[] threads = new Thread[threadCount];
+
+        for (int i = 0; i < threadCount; ++i) {
+            int index = i;
+
+            threads[i] = new Thread(() -> results[index] = mCache.get(key));
+            threads[i].start();
+        }
+
+        assertTrue("loader never started", mLoadStarted.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        // 让其他线程都走到等待加载结果的地方
+        Thread.sleep(100);
+
+        mLoadGate.countDown();
+
+        for (Thread thread : threads) {
+            thread.join(TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS));
+        }
+
+        assertEquals(1, loadCount(key));
+
+        for (String result : results) {
+            assertSame(results[0], result);
+        }
+
+        assertEquals("v" + key, results[0]);
+    }
+
+    @Test
+    public void differentKeysLoadInParallel() throws Exception {
+        JCacheKey first = JCacheKey.buildCacheKey("first");
+        JCacheKey second = JCacheKey.buildCacheKey("second");
+
+        // 两个key的加载都要等对方开始之后才能结束，串行加载的话第一个会等到超时
+        mLoadStarted = new CountDownLatch(2);
+        mLoadGate = mLoadStarted;
+
+        Thread firstThread = new Thread(() -> mCache.get(first));
+        Thread secondThread = new Thread(() -> mCache.get(second));
+
+        firstThread.start();
+        secondThread.start();
+
+        firstThread.join(TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS * 2));
+        secondThread.join(TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS * 2));
+
+        assertEquals("v" + first, mCache.get(first, false));
+        assertEquals("v" + second, mCache.get(second, false));
+    }
+
+    @Test
+    public void hitsAndOtherMissesDoNotWaitForSlowLoad() throws Exception {
+        JCacheKey cached = JCacheKey.buildCacheKey("cached");
+        JCacheKey slow = JCacheKey.buildCacheKey("slow");
+        JCacheKey other = JCacheKey.buildCacheKey("free");
+
+        assertEquals("v" + cached, mCache.get(cached));
+
+        mLoadStarted = new CountDownLatch(1);
+        mLoadGate = new CountDownLatch(1);
+
+        Thread slowThread = new Thread(() -> mCache.get(slow));
+        slowThread.start();
+
+        assertTrue(mLoadStarted.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        try {
+            // slow 还在加载，命中和别的key的加载都不用等它
+            assertEquals("v" + cached, mCache.get(cached));
+            assertEquals("v" + other, mCache.get(other));
+        } finally {
+            mLoadGate.countDown();
+        }
+
+        slowThread.join(TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS));
+
+        assertEquals("v" + slow, mCache.get(slow, false));
+        assertEquals(1, loadCount(cached));
+        assertEquals(1, loadCount(slow));
+    }
+
+    private int loadCount(@NonNull JCacheKey cacheKey) {
+        AtomicInteger count = mLoadCounts.get(cacheKey.toString());
+
+        return count == null ? 0 : count.get();
+    }
+
+    private static void await(@NonNull CountDownLatch latch) {
+        try {
+            if (!latch.await(TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                throw new RuntimeException("load gate timeout");
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
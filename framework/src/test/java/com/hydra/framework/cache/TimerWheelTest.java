@@ -0,0 +1,168 @@
+package com.hydra.framework.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Created by Hydra.
+ * <p>
+ * 时间轮：到时间之前不回调，到了之后最多晚一格回调一次，高层的节点要能一层层降下来
+ */
+public class TimerWheelTest {
+
+    private static final long START = 123456789L;
+
+    // 最底层一格的长度，回调最多比到期时间晚这么多
+    private static final long TICK = 1L << 30;
+
+    private final ArrayList<String> mExpired = new ArrayList<>();
+
+    private final TimerWheel.ExpireCallback<String> mRemoveOnExpire = new TimerWheel.ExpireCallback<String>() {
+        @Override
+        public long onExpire(@NonNull String key, long now) {
+            mExpired.add(key);
+
+            return Expiry.NEVER;
+        }
+    };
+
+    @Test
+    public void expiresOnlyAfterDeadline() {
+        TimerWheel<String> wheel = new TimerWheel<>(START);
+
+        wheel.schedule("k", START + seconds(2));
+
+        wheel.advance(START + seconds(1), mRemoveOnExpire);
+
+        assertTrue(mExpired.isEmpty());
+        assertEquals(1, wheel.size());
+
+        wheel.advance(START + seconds(3) + TICK, mRemoveOnExpire);
+
+        assertEquals(1, mExpired.size());
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void cascadesFromHigherLevels() {
+        long[] durations = {
+                seconds(90), TimeUnit.HOURS.toNanos(2), TimeUnit.HOURS.toNanos(30),
+                TimeUnit.HOURS.toNanos(84), TimeUnit.DAYS.toNanos(40)
+        };
+
+        for (long duration : durations) {
+            TimerWheel<String> wheel = new TimerWheel<>(START);
+
+            long deadline = START + duration;
+
+            wheel.schedule("k", deadline);
+
+            long step = Math.max(seconds(1), duration / 2000);
+
+            long[] firedAt = {-1L};
+
+            for (long now = START; firedAt[0] < 0 && now - deadline <= duration; now += step) {
+                wheel.advance(now, (key, time) -> {
+                    assertEquals("callback called twice for " + duration, -1L, firedAt[0]);
+
+                    firedAt[0] = time;
+
+                    return Expiry.NEVER;
+                });
+            }
+
+            assertTrue("never fired for " + duration, firedAt[0] >= 0);
+            assertTrue("fired early for " + duration, firedAt[0] - deadline >= 0);
+            assertTrue("fired too late for " + duration, firedAt[0] - deadline <= step + TICK);
+            assertEquals(0, wheel.size());
+        }
+    }
+
+    @Test
+    public void singleLargeAdvanceExpiresEveryLevel() {
+        TimerWheel<String> wheel = new TimerWheel<>(START);
+
+        wheel.schedule("second", START + seconds(2));
+        wheel.schedule("hour", START + TimeUnit.HOURS.toNanos(2));
+        wheel.schedule("day", START + TimeUnit.DAYS.toNanos(3));
+        wheel.schedule("far", START + TimeUnit.DAYS.toNanos(40));
+        wheel.schedule("later", START + TimeUnit.DAYS.toNanos(50));
+
+        wheel.advance(START + TimeUnit.DAYS.toNanos(41), mRemoveOnExpire);
+
+        assertEquals(4, mExpired.size());
+        assertTrue(!mExpired.contains("later"));
+        assertEquals(1, wheel.size());
+    }
+
+    @Test
+    public void rescheduleMovesDeadline() {
+        TimerWheel<String> wheel = new TimerWheel<>(START);
+
+        wheel.schedule("k", START + seconds(2));
+        wheel.schedule("k", START + seconds(10));
+
+        wheel.advance(START + seconds(5), mRemoveOnExpire);
+
+        assertTrue(mExpired.isEmpty());
+        assertEquals(1, wheel.size());
+
+        wheel.advance(START + seconds(11) + TICK, mRemoveOnExpire);
+
+        assertEquals(1, mExpired.size());
+    }
+
+    @Test
+    public void descheduleAndNeverRemove() {
+        TimerWheel<String> wheel = new TimerWheel<>(START);
+
+        wheel.schedule("removed", START + seconds(2));
+        wheel.schedule("never", START + seconds(2));
+
+        wheel.deschedule("removed");
+        wheel.schedule("never", Expiry.NEVER);
+
+        assertEquals(0, wheel.size());
+
+        wheel.advance(START + TimeUnit.DAYS.toNanos(1), mRemoveOnExpire);
+
+        assertTrue(mExpired.isEmpty());
+    }
+
+    @Test
+    public void callbackCanExtendDeadline() {
+        TimerWheel<String> wheel = new TimerWheel<>(START);
+
+        wheel.schedule("k", START + seconds(2));
+
+        int[] calls = {0};
+
+        // 第一次到时间时续期10秒，像 afterAccess 期间被读过
+        TimerWheel.ExpireCallback<String> renewOnce = (key, now) -> ++calls[0] == 1 ? now + seconds(10) : Expiry.NEVER;
+
+        wheel.advance(START + seconds(4), renewOnce);
+
+        assertEquals(1, calls[0]);
+        assertEquals(1, wheel.size());
+
+        wheel.advance(START + seconds(8), renewOnce);
+
+        assertEquals(1, calls[0]);
+
+        wheel.advance(START + seconds(16), renewOnce);
+
+        assertEquals(2, calls[0]);
+        assertEquals(0, wheel.size());
+    }
+
+    private static long seconds(long seconds) {
+        return TimeUnit.SECONDS.toNanos(seconds);
+    }
+}
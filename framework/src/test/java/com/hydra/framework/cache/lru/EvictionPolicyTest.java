@@ -0,0 +1,111 @@
+package com.hydra.framework.cache.lru;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Created by Hydra.
+ * <p>
+ * 每个淘汰策略都要：不超过 maxSize，访问过的节点比没访问过的晚淘汰，一次性的扫描挤不掉经常访问的节点
+ */
+public class EvictionPolicyTest {
+
+    private static final EvictionPolicy[] POLICIES = {
+            EvictionPolicy.HOT_END, EvictionPolicy.ARC, EvictionPolicy.LIRS, EvictionPolicy.SLRU,
+            EvictionPolicy.CLOCK_PRO
+    };
+
+    private static final int MAX_SIZE = 100;
+
+    private static final int HOT_COUNT = 10;
+
+    @Test
+    public void sizeNeverExceedsMaxSize() {
+        for (EvictionPolicy policy : POLICIES) {
+            JLruCache<String, String> cache = policy.create(MAX_SIZE, 0.5F, null);
+
+            for (int i = 0; i < MAX_SIZE * 10; ++i) {
+                cache.put("k" + i, "v" + i);
+
+                // 有一部分是重复访问，让策略把节点在各个队列之间挪来挪去
+                cache.get("k" + i / 3);
+
+                assertTrue(policy + " size " + cache.size(), cache.size() <= MAX_SIZE);
+            }
+
+            assertEquals(policy.toString(), MAX_SIZE, cache.size());
+        }
+    }
+
+    @Test
+    public void accessedEntrySurvivesColdOne() {
+        for (EvictionPolicy policy : POLICIES) {
+            JLruCache<String, String> cache = policy.create(4, 0.5F, null);
+
+            cache.put("a", "va");
+            cache.put("b", "vb");
+            cache.put("c", "vc");
+            cache.put("d", "vd");
+
+            cache.get("a");
+
+            cache.put("e", "ve");
+
+            assertEquals(policy.toString(), 4, cache.size());
+            assertNotNull(policy + " evicted the accessed entry", cache.get("a"));
+            assertNotNull(policy + " evicted the new entry", cache.get("e"));
+        }
+    }
+
+    @Test
+    public void scanDoesNotFlushFrequentEntries() {
+        for (EvictionPolicy policy : POLICIES) {
+            JLruCache<String, String> cache = policy.create(MAX_SIZE, 0.5F, null);
+
+            for (int i = 0; i < HOT_COUNT; ++i) {
+                cache.put("hot" + i, "v");
+            }
+
+            for (int round = 0; round < 3; ++round) {
+                for (int i = 0; i < HOT_COUNT; ++i) {
+                    cache.get("hot" + i);
+                }
+            }
+
+            // 三倍容量的一次性key，每个只放一次，之后再也不访问
+            for (int i = 0; i < MAX_SIZE * 3; ++i) {
+                cache.put("scan" + i, "v");
+            }
+
+            for (int i = 0; i < HOT_COUNT; ++i) {
+                assertNotNull(policy + " lost hot" + i + " to a scan", cache.get("hot" + i));
+            }
+
+            assertTrue(policy.toString(), cache.size() <= MAX_SIZE);
+        }
+    }
+
+    @Test
+    public void removeAndClear() {
+        for (EvictionPolicy policy : POLICIES) {
+            JLruCache<String, String> cache = policy.create(MAX_SIZE, 0.5F, null);
+
+            for (int i = 0; i < MAX_SIZE; ++i) {
+                cache.put("k" + i, "v" + i);
+            }
+
+            assertEquals(policy.toString(), "v1", cache.remove("k1"));
+            assertNull(policy.toString(), cache.get("k1"));
+            assertEquals(policy.toString(), MAX_SIZE - 1, cache.size());
+
+            cache.clear();
+
+            assertEquals(policy.toString(), 0, cache.size());
+            assertNull(policy.toString(), cache.get("k2"));
+        }
+    }
+}